@@ -12,8 +12,19 @@
  */
 package org.openhab.binding.coap.internal;
 
+import java.io.IOException;
+
 import org.eclipse.californium.core.CoapClient;
 import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.openhab.binding.coap.internal.coap.CongestionController;
+import org.openhab.binding.coap.internal.coap.MulticastGroupPoller;
+import org.openhab.binding.coap.internal.coap.MulticastGroupWriter;
+import org.openhab.binding.coap.internal.coap.PollPlanner;
+import org.openhab.binding.coap.internal.coap.ProcessingScope;
+import org.openhab.binding.coap.internal.coap.RateLimitedCoAPClient;
+import org.openhab.binding.coap.internal.coap.SingleFlightRegistry;
+import org.openhab.binding.coap.internal.coap.TimingWheel;
+import org.openhab.binding.coap.internal.transform.TransformationBulkhead;
 
 /**
  * The {@link CoAPClientProvider} defines the interface for providing {@link CoapClient} instances to thing handlers
@@ -30,4 +41,90 @@ public interface CoAPClientProvider {
      * @return a CoapClient
      */
     CoapClient getInsecureClient();
+
+    /**
+     * get the insecure coap client responsible for a destination
+     *
+     * coap+tcp destinations share one TCP client with a long-lived connection per host
+     *
+     * @param scheme the URI scheme of the destination
+     * @param host the destination host
+     * @return a CoapClient
+     * @throws IOException if the client for the scheme could not be started
+     */
+    CoapClient getInsecureClient(String scheme, String host) throws IOException;
+
+    /**
+     * get the DTLS endpoint for coaps destinations
+     *
+     * the endpoint is started with the first call
+     *
+     * @return the CoAPSecureEndpoint
+     * @throws IOException if the endpoint could not be started
+     */
+    CoAPSecureEndpoint getSecureEndpoint() throws IOException;
+
+    /**
+     * get the congestion controller shared by all thing handlers
+     *
+     * @return the CongestionController
+     */
+    CongestionController getCongestionController();
+
+    /**
+     * get the rate limiter shared by all thing handlers
+     *
+     * @return the RateLimitedCoAPClient
+     */
+    RateLimitedCoAPClient getRateLimitedClient();
+
+    /**
+     * get the registry of outstanding reads shared by all thing handlers
+     *
+     * @return the SingleFlightRegistry
+     */
+    SingleFlightRegistry getSingleFlightRegistry();
+
+    /**
+     * get the timer for polls and request timeouts shared by all thing handlers
+     *
+     * @return the TimingWheel
+     */
+    TimingWheel getTimer();
+
+    /**
+     * get the poll planner shared by all thing handlers
+     *
+     * @return the PollPlanner
+     */
+    PollPlanner getPollPlanner();
+
+    /**
+     * get the multicast group poller shared by all thing handlers
+     *
+     * @return the MulticastGroupPoller
+     */
+    MulticastGroupPoller getMulticastGroupPoller();
+
+    /**
+     * get the multicast group writer shared by all thing handlers
+     *
+     * @return the MulticastGroupWriter
+     */
+    MulticastGroupWriter getMulticastGroupWriter();
+
+    /**
+     * create the scope for processing the results of a thing
+     *
+     * @param name the name of the scope (used for thread names)
+     * @return a new ProcessingScope, which must be closed when the thing is disposed
+     */
+    ProcessingScope createProcessingScope(String name);
+
+    /**
+     * get the executor for state transformations shared by all thing handlers
+     *
+     * @return the TransformationBulkhead
+     */
+    TransformationBulkhead getTransformationBulkhead();
 }
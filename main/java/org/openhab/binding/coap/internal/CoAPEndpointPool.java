@@ -0,0 +1,188 @@
+/**
+ * Copyright (c) 2010-2022 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.coap.internal;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.californium.core.CoapClient;
+import org.eclipse.californium.core.coap.CoAP;
+import org.eclipse.californium.core.config.CoapConfig;
+import org.eclipse.californium.core.network.CoapEndpoint;
+import org.eclipse.californium.elements.config.Configuration;
+import org.eclipse.californium.elements.config.TcpConfig;
+import org.eclipse.californium.elements.tcp.netty.TcpClientConnector;
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+import org.openhab.core.common.NamedThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The {@link CoAPEndpointPool} manages a number of UDP endpoints, each bound to its own local port and with its own
+ * executor. Destination hosts are mapped to endpoints by consistent hashing, so all messages to one host use the same
+ * endpoint (and with that the same message ID space, deduplication and exchange store).
+ *
+ * Destinations with a coap+tcp URL (RFC 8323) use a single TCP endpoint, which keeps one long-lived connection per
+ * host. It is only started when the first TCP client is requested.
+ *
+ * @author Jan N. Klug - Initial contribution
+ */
+@NonNullByDefault
+public class CoAPEndpointPool {
+    // number of points on the hash ring per endpoint, smooths the distribution for few endpoints
+    private static final int VIRTUAL_NODES = 64;
+    private static final int MULTICAST_BASE_MID = 65000;
+
+    private final Logger logger = LoggerFactory.getLogger(CoAPEndpointPool.class);
+    private final List<CoapEndpoint> endpoints = new ArrayList<>();
+    private final List<CoapClient> clients = new ArrayList<>();
+    private final List<ScheduledExecutorService> executors = new ArrayList<>();
+    private final NavigableMap<Integer, CoapClient> ring = new TreeMap<>();
+    private final Configuration tcpConfiguration;
+    private @Nullable CoapEndpoint tcpEndpoint;
+    private @Nullable CoapClient tcpClient;
+
+    /**
+     * create and start the endpoints
+     *
+     * @param endpointCount number of endpoints (at least one)
+     * @param localPort first local port, the endpoints use consecutive ports (0 for ephemeral ports)
+     * @param tcpIdleTimeout time in s an unused TCP connection is kept open
+     * @param tcpMaxMessageSize the maximum message size for TCP, larger payloads are sent block-wise
+     * @param tcpBulkBlocks number of 1024 byte blocks in one BERT block (RFC 8323, section 6), 1 disables BERT
+     * @throws IOException if an endpoint could not be started
+     */
+    public CoAPEndpointPool(int endpointCount, int localPort, int tcpIdleTimeout, int tcpMaxMessageSize,
+            int tcpBulkBlocks) throws IOException {
+        int count = Math.max(1, endpointCount);
+        CoapConfig.register();
+        TcpConfig.register();
+        Configuration configuration = new Configuration(Configuration.getStandard());
+        // multicast requests need a separate MID range for the responses of the group members
+        configuration.set(CoapConfig.MULTICAST_BASE_MID, MULTICAST_BASE_MID);
+        tcpConfiguration = new Configuration(Configuration.getStandard());
+        tcpConfiguration.set(TcpConfig.TCP_CONNECTION_IDLE_TIMEOUT, Math.max(1, tcpIdleTimeout), TimeUnit.SECONDS);
+        tcpConfiguration.set(CoapConfig.MAX_MESSAGE_SIZE, Math.max(1024, tcpMaxMessageSize));
+        tcpConfiguration.set(CoapConfig.TCP_NUMBER_OF_BULK_BLOCKS, Math.max(1, tcpBulkBlocks));
+        try {
+            for (int i = 0; i < count; i++) {
+                InetSocketAddress address = new InetSocketAddress(localPort == 0 ? 0 : localPort + i);
+                ScheduledExecutorService executor = Executors.newScheduledThreadPool(1,
+                        new NamedThreadFactory("coap-endpoint-" + i));
+                executors.add(executor);
+
+                CoapEndpoint endpoint = new CoapEndpoint.Builder().setInetSocketAddress(address)
+                        .setConfiguration(configuration).build();
+                endpoint.setExecutors(executor, executor);
+                endpoint.start();
+                endpoints.add(endpoint);
+                logger.debug("Started CoAP endpoint {} on {}", i, endpoint.getAddress());
+
+                CoapClient client = new CoapClient().setEndpoint(endpoint).useExecutor();
+                clients.add(client);
+                for (int v = 0; v < VIRTUAL_NODES; v++) {
+                    ring.put(hash("endpoint-" + i + "#" + v), client);
+                }
+            }
+        } catch (IOException e) {
+            shutdown();
+            throw e;
+        }
+    }
+
+    /**
+     * get the client for a destination host
+     *
+     * @param host the host name or address
+     * @return the client bound to the endpoint responsible for this host
+     */
+    public CoapClient getClient(String host) {
+        Map.Entry<Integer, CoapClient> entry = ring.ceilingEntry(hash(host));
+        return entry != null ? entry.getValue() : ring.firstEntry().getValue();
+    }
+
+    /**
+     * get the client for a destination
+     *
+     * @param scheme the URI scheme of the destination
+     * @param host the host name or address
+     * @return the TCP client for coap+tcp, otherwise the UDP client responsible for this host
+     * @throws IOException if the TCP endpoint could not be started
+     */
+    public CoapClient getClient(String scheme, String host) throws IOException {
+        return CoAP.isTcpScheme(scheme) ? getTcpClient() : getClient(host);
+    }
+
+    private synchronized CoapClient getTcpClient() throws IOException {
+        CoapClient tcpClient = this.tcpClient;
+        if (tcpClient == null) {
+            CoapEndpoint endpoint = new CoapEndpoint.Builder().setConnector(new TcpClientConnector(tcpConfiguration))
+                    .setConfiguration(tcpConfiguration).build();
+            endpoint.start();
+            logger.debug("Started CoAP TCP endpoint");
+            tcpEndpoint = endpoint;
+            tcpClient = new CoapClient().setEndpoint(endpoint).useExecutor();
+            this.tcpClient = tcpClient;
+        }
+        return tcpClient;
+    }
+
+    /**
+     * get the client of the first endpoint
+     *
+     * @return a client
+     */
+    public CoapClient getDefaultClient() {
+        return clients.get(0);
+    }
+
+    public synchronized void shutdown() {
+        CoapClient tcpClient = this.tcpClient;
+        if (tcpClient != null) {
+            tcpClient.shutdown();
+            this.tcpClient = null;
+        }
+        CoapEndpoint tcpEndpoint = this.tcpEndpoint;
+        if (tcpEndpoint != null) {
+            tcpEndpoint.destroy();
+            this.tcpEndpoint = null;
+        }
+        clients.forEach(CoapClient::shutdown);
+        endpoints.forEach(CoapEndpoint::destroy);
+        executors.forEach(ScheduledExecutorService::shutdownNow);
+        clients.clear();
+        endpoints.clear();
+        executors.clear();
+        ring.clear();
+    }
+
+    private static int hash(String key) {
+        // murmur3 finalizer, String.hashCode alone is not spread well enough for a hash ring
+        int h = key.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+}
@@ -14,15 +14,37 @@ package org.openhab.binding.coap.internal;
 
 import static org.openhab.binding.coap.internal.CoAPBindingConstants.THING_TYPE_URL;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 import org.eclipse.californium.core.CoapClient;
 import org.eclipse.jdt.annotation.NonNullByDefault;
 import org.eclipse.jdt.annotation.Nullable;
+import org.openhab.binding.coap.internal.coap.CongestionController;
+import org.openhab.binding.coap.internal.coap.MulticastGroupPoller;
+import org.openhab.binding.coap.internal.coap.MulticastGroupWriter;
+import org.openhab.binding.coap.internal.coap.PollPlanner;
+import org.openhab.binding.coap.internal.coap.ProcessingScope;
+import org.openhab.binding.coap.internal.coap.RateLimitedCoAPClient;
+import org.openhab.binding.coap.internal.coap.SingleFlightRegistry;
+import org.openhab.binding.coap.internal.coap.TimingWheel;
+import org.openhab.binding.coap.internal.config.CoAPBindingConfig;
 import org.openhab.binding.coap.internal.transform.CascadedValueTransformationImpl;
 import org.openhab.binding.coap.internal.transform.NoOpValueTransformation;
+import org.openhab.binding.coap.internal.transform.TransformationBulkhead;
 import org.openhab.binding.coap.internal.transform.ValueTransformation;
 import org.openhab.binding.coap.internal.transform.ValueTransformationProvider;
+import org.openhab.core.OpenHAB;
+import org.openhab.core.common.NamedThreadFactory;
+import org.openhab.core.config.core.Configuration;
 import org.openhab.core.thing.Thing;
 import org.openhab.core.thing.ThingTypeUID;
 import org.openhab.core.thing.binding.BaseThingHandlerFactory;
@@ -49,26 +71,66 @@ public class CoAPHandlerFactory extends BaseThingHandlerFactory
     private static final Set<ThingTypeUID> SUPPORTED_THING_TYPES_UIDS = Set.of(THING_TYPE_URL);
     private final Logger logger = LoggerFactory.getLogger(CoAPHandlerFactory.class);
 
-    private final CoapClient insecureClient;
+    private final CoAPEndpointPool insecureEndpoints;
+    private final CoAPBindingConfig bindingConfig;
+    private @Nullable CoAPSecureEndpoint secureEndpoint;
+    private final CongestionController congestionController;
+    private final ExecutorService workers;
+    private final TimingWheel timer;
+    private final RateLimitedCoAPClient rateLimitedClient;
+    private final PollPlanner pollPlanner;
+    private final MulticastGroupPoller multicastGroupPoller;
+    private final MulticastGroupWriter multicastGroupWriter;
+    private final TransformationBulkhead transformationBulkhead;
+    private final SingleFlightRegistry singleFlightRegistry = new SingleFlightRegistry();
 
     private final CoAPDynamicStateDescriptionProvider coapDynamicStateDescriptionProvider;
 
     @Activate
-    public CoAPHandlerFactory(@Reference CoAPDynamicStateDescriptionProvider coapDynamicStateDescriptionProvider) {
-        this.insecureClient = new CoapClient();
+    public CoAPHandlerFactory(@Reference CoAPDynamicStateDescriptionProvider coapDynamicStateDescriptionProvider,
+            Map<String, Object> config) {
+        CoAPBindingConfig bindingConfig = new Configuration(config).as(CoAPBindingConfig.class);
+        this.bindingConfig = bindingConfig;
         try {
-            this.insecureClient.useExecutor();
-        } catch (Exception e) {
+            this.insecureEndpoints = new CoAPEndpointPool(bindingConfig.endpointCount, bindingConfig.localPort,
+                    bindingConfig.tcpIdleTimeout, bindingConfig.tcpMaxMessageSize, bindingConfig.tcpBulkBlocks);
+        } catch (IOException e) {
             logger.warn("Failed to start insecure coap client: {}", e.getMessage());
             throw new IllegalStateException("Could not create insecure coapClient");
         }
+        this.workers = Executors.newFixedThreadPool(Math.max(1, bindingConfig.workerThreads),
+                new NamedThreadFactory("coap-worker"));
+        this.congestionController = new CongestionController(bindingConfig.nstart, workers);
+        this.timer = new TimingWheel(workers, 10, TimeUnit.MILLISECONDS, 512);
+        this.rateLimitedClient = new RateLimitedCoAPClient(timer, bindingConfig.requestRate,
+                bindingConfig.requestBurst);
+        this.pollPlanner = new PollPlanner(rateLimitedClient);
+        this.multicastGroupPoller = new MulticastGroupPoller(timer, rateLimitedClient, insecureEndpoints::getClient,
+                bindingConfig.multicastLeisure);
+        this.multicastGroupWriter = new MulticastGroupWriter(timer, rateLimitedClient, insecureEndpoints::getClient,
+                bindingConfig.multicastWriteWindow);
+        this.transformationBulkhead = new TransformationBulkhead(bindingConfig.transformationThreads,
+                bindingConfig.transformationQueueSize, timer, bindingConfig.transformationBudget,
+                bindingConfig.transformationsPerThing);
         this.coapDynamicStateDescriptionProvider = coapDynamicStateDescriptionProvider;
     }
 
     @Deactivate
     public void deactivate() {
+        multicastGroupPoller.shutdown();
+        transformationBulkhead.shutdown();
+        rateLimitedClient.shutdown();
+        timer.stop();
+        workers.shutdownNow();
+        synchronized (this) {
+            CoAPSecureEndpoint secureEndpoint = this.secureEndpoint;
+            if (secureEndpoint != null) {
+                secureEndpoint.shutdown();
+                this.secureEndpoint = null;
+            }
+        }
         try {
-            insecureClient.shutdown();
+            insecureEndpoints.shutdown();
         } catch (Exception e) {
             logger.warn("Failed to shutdown coap client: {}", e.getMessage());
         }
@@ -101,6 +163,72 @@ public class CoAPHandlerFactory extends BaseThingHandlerFactory
 
     @Override
     public CoapClient getInsecureClient() {
-        return insecureClient;
+        return insecureEndpoints.getDefaultClient();
+    }
+
+    @Override
+    public CoapClient getInsecureClient(String scheme, String host) throws IOException {
+        return insecureEndpoints.getClient(scheme, host);
+    }
+
+    @Override
+    public synchronized CoAPSecureEndpoint getSecureEndpoint() throws IOException {
+        CoAPSecureEndpoint secureEndpoint = this.secureEndpoint;
+        if (secureEndpoint == null) {
+            List<String> trustedRpks = Arrays.stream(bindingConfig.trustedRpks.split(",")).map(String::trim)
+                    .filter(key -> !key.isEmpty()).collect(Collectors.toList());
+            Path connectionStore = bindingConfig.dtlsSaveConnections
+                    ? Path.of(OpenHAB.getUserDataFolder(), "coap", "dtls-connections")
+                    : null;
+            secureEndpoint = new CoAPSecureEndpoint(bindingConfig.dtlsLocalPort, bindingConfig.dtlsConnectionIdLength,
+                    bindingConfig.rpkPrivateKey, bindingConfig.rpkPublicKey, trustedRpks, connectionStore);
+            this.secureEndpoint = secureEndpoint;
+        }
+        return secureEndpoint;
+    }
+
+    @Override
+    public CongestionController getCongestionController() {
+        return congestionController;
+    }
+
+    @Override
+    public RateLimitedCoAPClient getRateLimitedClient() {
+        return rateLimitedClient;
+    }
+
+    @Override
+    public SingleFlightRegistry getSingleFlightRegistry() {
+        return singleFlightRegistry;
+    }
+
+    @Override
+    public TimingWheel getTimer() {
+        return timer;
+    }
+
+    @Override
+    public PollPlanner getPollPlanner() {
+        return pollPlanner;
+    }
+
+    @Override
+    public MulticastGroupPoller getMulticastGroupPoller() {
+        return multicastGroupPoller;
+    }
+
+    @Override
+    public MulticastGroupWriter getMulticastGroupWriter() {
+        return multicastGroupWriter;
+    }
+
+    @Override
+    public TransformationBulkhead getTransformationBulkhead() {
+        return transformationBulkhead;
+    }
+
+    @Override
+    public ProcessingScope createProcessingScope(String name) {
+        return bindingConfig.virtualThreads ? ProcessingScope.virtual(name) : ProcessingScope.direct();
     }
 }
@@ -0,0 +1,209 @@
+/**
+ * Copyright (c) 2010-2022 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.coap.internal;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.californium.core.CoapClient;
+import org.eclipse.californium.core.config.CoapConfig;
+import org.eclipse.californium.core.network.CoapEndpoint;
+import org.eclipse.californium.elements.auth.RawPublicKeyIdentity;
+import org.eclipse.californium.elements.config.Configuration;
+import org.eclipse.californium.elements.util.SecretUtil;
+import org.eclipse.californium.scandium.DTLSConnector;
+import org.eclipse.californium.scandium.config.DtlsConfig;
+import org.eclipse.californium.scandium.config.DtlsConnectorConfig;
+import org.eclipse.californium.scandium.dtls.pskstore.AdvancedMultiPskStore;
+import org.eclipse.californium.scandium.dtls.x509.SingleCertificateProvider;
+import org.eclipse.californium.scandium.dtls.x509.StaticNewAdvancedCertificateVerifier;
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+import org.openhab.core.common.NamedThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The {@link CoAPSecureEndpoint} manages the DTLS endpoint for coaps destinations. Pre-shared keys are registered per
+ * destination, raw public keys (RFC 7250) are configured for the binding. The client asks for a DTLS Connection ID
+ * (RFC 9146), so a changed address (e.g. NAT rebinding) does not require a new handshake. The established
+ * connections are saved on shutdown and restored on start, so a restart does not cause a full handshake with every
+ * device.
+ *
+ * @author Jan N. Klug - Initial contribution
+ */
+@NonNullByDefault
+public class CoAPSecureEndpoint {
+    // connections unused for a longer time are not saved, the devices have most likely dropped them
+    private static final long MAX_QUIET_PERIOD = TimeUnit.DAYS.toSeconds(1);
+
+    private final Logger logger = LoggerFactory.getLogger(CoAPSecureEndpoint.class);
+    private final AdvancedMultiPskStore pskStore = new AdvancedMultiPskStore();
+    private final ScheduledExecutorService executor;
+    private final DTLSConnector connector;
+    private final CoapEndpoint endpoint;
+    private final CoapClient client;
+    private final @Nullable Path connectionStore;
+
+    /**
+     * create and start the endpoint
+     *
+     * @param localPort the local port (0 for an ephemeral port)
+     * @param connectionIdLength the length of the requested Connection ID (0 disables it)
+     * @param rpkPrivateKey the private key for raw public key authentication (base64 PKCS#8, empty if not used)
+     * @param rpkPublicKey the public key for raw public key authentication (base64 X.509, empty if not used)
+     * @param trustedRpks the trusted public keys of the devices (base64 X.509)
+     * @param connectionStore the file the connections are saved to, null if they should not be saved
+     * @throws IOException if the endpoint could not be started or a key is invalid
+     */
+    public CoAPSecureEndpoint(int localPort, int connectionIdLength, String rpkPrivateKey, String rpkPublicKey,
+            List<String> trustedRpks, @Nullable Path connectionStore) throws IOException {
+        this.connectionStore = connectionStore;
+        CoapConfig.register();
+        DtlsConfig.register();
+        Configuration configuration = new Configuration(Configuration.getStandard());
+        configuration.set(DtlsConfig.DTLS_ROLE, DtlsConfig.DtlsRole.CLIENT_ONLY);
+        configuration.set(DtlsConfig.DTLS_CONNECTION_ID_LENGTH, Math.max(0, connectionIdLength));
+
+        DtlsConnectorConfig.Builder builder = DtlsConnectorConfig.builder(configuration)
+                .setAddress(new InetSocketAddress(localPort)).setAdvancedPskStore(pskStore);
+        if (!rpkPrivateKey.isBlank() && !rpkPublicKey.isBlank()) {
+            try {
+                KeyFactory keyFactory = KeyFactory.getInstance("EC");
+                PrivateKey privateKey = keyFactory
+                        .generatePrivate(new PKCS8EncodedKeySpec(Base64.getDecoder().decode(rpkPrivateKey.trim())));
+                PublicKey publicKey = keyFactory
+                        .generatePublic(new X509EncodedKeySpec(Base64.getDecoder().decode(rpkPublicKey.trim())));
+                RawPublicKeyIdentity[] trusted = new RawPublicKeyIdentity[trustedRpks.size()];
+                for (int i = 0; i < trusted.length; i++) {
+                    trusted[i] = new RawPublicKeyIdentity(keyFactory.generatePublic(
+                            new X509EncodedKeySpec(Base64.getDecoder().decode(trustedRpks.get(i).trim()))));
+                }
+                builder.setCertificateIdentityProvider(new SingleCertificateProvider(privateKey, publicKey))
+                        .setAdvancedCertificateVerifier(
+                                StaticNewAdvancedCertificateVerifier.builder().setTrustedRPKs(trusted).build());
+            } catch (GeneralSecurityException | IllegalArgumentException e) {
+                throw new IOException("Invalid raw public key: " + e.getMessage(), e);
+            }
+        }
+
+        connector = new DTLSConnector(builder.build());
+        loadConnections();
+        executor = Executors.newScheduledThreadPool(1, new NamedThreadFactory("coap-dtls"));
+        endpoint = new CoapEndpoint.Builder().setConnector(connector).setConfiguration(configuration).build();
+        endpoint.setExecutors(executor, executor);
+        try {
+            endpoint.start();
+        } catch (IOException e) {
+            endpoint.destroy();
+            executor.shutdownNow();
+            throw e;
+        }
+        logger.debug("Started CoAP DTLS endpoint on {}", endpoint.getAddress());
+        client = new CoapClient().setEndpoint(endpoint).useExecutor();
+    }
+
+    /**
+     * add the pre-shared key of a destination
+     *
+     * @param peer the address of the destination
+     * @param identity the PSK identity
+     * @param key the pre-shared key
+     */
+    public void addPsk(InetSocketAddress peer, String identity, byte[] key) {
+        pskStore.addKnownPeer(peer, identity, SecretUtil.create(key, "PSK"));
+    }
+
+    /**
+     * remove the pre-shared key of a destination
+     *
+     * @param peer the address of the destination
+     */
+    public void removePsk(InetSocketAddress peer) {
+        pskStore.removeKnownPeer(peer);
+    }
+
+    public CoapClient getClient() {
+        return client;
+    }
+
+    public void shutdown() {
+        client.shutdown();
+        // the connector must be stopped before the connections can be saved
+        connector.stop();
+        saveConnections();
+        endpoint.destroy();
+        executor.shutdownNow();
+    }
+
+    private void loadConnections() {
+        Path connectionStore = this.connectionStore;
+        if (connectionStore == null || !Files.exists(connectionStore)) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(connectionStore)))) {
+            // the connections contain timestamps, they need to be shifted by the time the binding was stopped
+            long savedAt = in.readLong();
+            long delta = TimeUnit.MILLISECONDS.toNanos(Math.max(0, System.currentTimeMillis() - savedAt));
+            int count = connector.loadConnections(in, delta);
+            logger.debug("Restored {} DTLS connections", count);
+        } catch (IOException e) {
+            logger.warn("Failed to restore DTLS connections: {}", e.getMessage());
+        } finally {
+            try {
+                // restored connections must not be used twice
+                Files.deleteIfExists(connectionStore);
+            } catch (IOException e) {
+                logger.debug("Failed to delete '{}': {}", connectionStore, e.getMessage());
+            }
+        }
+    }
+
+    private void saveConnections() {
+        Path connectionStore = this.connectionStore;
+        if (connectionStore == null) {
+            return;
+        }
+        try {
+            Path directory = connectionStore.getParent();
+            if (directory != null) {
+                Files.createDirectories(directory);
+            }
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(connectionStore)))) {
+                out.writeLong(System.currentTimeMillis());
+                int count = connector.saveConnections(out, MAX_QUIET_PERIOD);
+                logger.debug("Saved {} DTLS connections", count);
+            }
+        } catch (IOException e) {
+            logger.warn("Failed to save DTLS connections: {}", e.getMessage());
+        }
+    }
+}
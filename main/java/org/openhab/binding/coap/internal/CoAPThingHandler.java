@@ -12,49 +12,69 @@
  */
 package org.openhab.binding.coap.internal;
 
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
 import java.util.Base64;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 import java.util.function.Function;
 
 import org.eclipse.californium.core.CoapClient;
+import org.eclipse.californium.core.CoapHandler;
+import org.eclipse.californium.core.CoapResponse;
 import org.eclipse.californium.core.coap.CoAP;
+import org.eclipse.californium.core.coap.CoAP.Type;
+import org.eclipse.californium.core.coap.MediaTypeRegistry;
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.core.coap.Token;
 import org.eclipse.jdt.annotation.NonNullByDefault;
 import org.eclipse.jdt.annotation.Nullable;
-import org.eclipse.jetty.client.HttpClient;
-import org.eclipse.jetty.client.HttpConversation;
 import org.eclipse.jetty.client.api.Authentication;
 import org.eclipse.jetty.client.api.AuthenticationStore;
-import org.eclipse.jetty.client.api.Request;
 import org.eclipse.jetty.client.util.BasicAuthentication;
 import org.eclipse.jetty.client.util.DigestAuthentication;
-import org.eclipse.jetty.client.util.StringContentProvider;
-import org.eclipse.jetty.http.HttpField;
-import org.openhab.binding.http.internal.config.CoAPChannelConfig;
-import org.openhab.binding.http.internal.config.CoAPChannelMode;
-import org.openhab.binding.http.internal.config.CoAPThingConfig;
-import org.openhab.binding.http.internal.converter.AbstractTransformingItemConverter;
-import org.openhab.binding.http.internal.converter.ColorItemConverter;
-import org.openhab.binding.http.internal.converter.DimmerItemConverter;
-import org.openhab.binding.http.internal.converter.FixedValueMappingItemConverter;
-import org.openhab.binding.http.internal.converter.GenericItemConverter;
-import org.openhab.binding.http.internal.converter.ImageItemConverter;
-import org.openhab.binding.http.internal.converter.ItemValueConverter;
-import org.openhab.binding.http.internal.converter.NumberItemConverter;
-import org.openhab.binding.http.internal.converter.PlayerItemConverter;
-import org.openhab.binding.http.internal.converter.RollershutterItemConverter;
-import org.openhab.binding.http.internal.http.Content;
-import org.openhab.binding.http.internal.http.HttpAuthException;
-import org.openhab.binding.http.internal.http.HttpResponseListener;
-import org.openhab.binding.http.internal.http.RefreshingUrlCache;
-import org.openhab.binding.http.internal.transform.ValueTransformationProvider;
+import org.openhab.binding.coap.internal.cbor.CborReader;
+import org.openhab.binding.coap.internal.cbor.CborWriter;
+import org.openhab.binding.coap.internal.coap.Block1Transfer;
+import org.openhab.binding.coap.internal.coap.CoAPResponseListener;
+import org.openhab.binding.coap.internal.coap.CoapAuthException;
+import org.openhab.binding.coap.internal.coap.CommandCoalescer;
+import org.openhab.binding.coap.internal.coap.CongestionController;
+import org.openhab.binding.coap.internal.coap.Content;
+import org.openhab.binding.coap.internal.coap.ProcessingScope;
+import org.openhab.binding.coap.internal.coap.RateLimitedCoAPClient;
+import org.openhab.binding.coap.internal.coap.RefreshingUrlCache;
+import org.openhab.binding.coap.internal.coap.RequestPriority;
+import org.openhab.binding.coap.internal.coap.SingleFlightRegistry;
+import org.openhab.binding.coap.internal.config.CoAPChannelConfig;
+import org.openhab.binding.coap.internal.config.CoAPChannelMode;
+import org.openhab.binding.coap.internal.config.CoAPThingConfig;
+import org.openhab.binding.coap.internal.converter.AbstractTransformingItemConverter;
+import org.openhab.binding.coap.internal.converter.ColorItemConverter;
+import org.openhab.binding.coap.internal.converter.DimmerItemConverter;
+import org.openhab.binding.coap.internal.converter.FixedValueMappingItemConverter;
+import org.openhab.binding.coap.internal.converter.GenericItemConverter;
+import org.openhab.binding.coap.internal.converter.ImageItemConverter;
+import org.openhab.binding.coap.internal.converter.ItemValueConverter;
+import org.openhab.binding.coap.internal.converter.NumberItemConverter;
+import org.openhab.binding.coap.internal.converter.PlayerItemConverter;
+import org.openhab.binding.coap.internal.converter.RollershutterItemConverter;
+import org.openhab.binding.coap.internal.transform.TransformationBulkhead;
+import org.openhab.binding.coap.internal.transform.ValueTransformationProvider;
 import org.openhab.core.library.types.DateTimeType;
 import org.openhab.core.library.types.PointType;
 import org.openhab.core.library.types.StringType;
@@ -69,6 +89,7 @@ import org.openhab.core.types.RefreshType;
 import org.openhab.core.types.State;
 import org.openhab.core.types.StateDescription;
 import org.openhab.core.types.StateDescriptionFragmentBuilder;
+import org.openhab.core.types.UnDefType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -81,20 +102,31 @@ import org.slf4j.LoggerFactory;
 @NonNullByDefault
 public class CoAPThingHandler extends BaseThingHandler {
     private static final Set<Character> URL_PART_DELIMITER = Set.of('/', '?', '&');
+    private static final String PROPERTY_CONGESTION_CONTROL = "congestionControl";
+    private static final String PROPERTY_RATE_LIMIT = "rateLimit";
 
     private final Logger logger = LoggerFactory.getLogger(CoAPThingHandler.class);
     private final ValueTransformationProvider valueTransformationProvider;
     private final CoAPClientProvider coapClientProvider;
 
     // private CoAPClientWrapper coapClient = new CoAPClientWrapper();
-    // private CoAPClientWrapper rateLimitedHttpClient;
     private CoapClient coapClient = new CoapClient();
+    private final CongestionController congestionController;
+    private final RateLimitedCoAPClient rateLimitedClient;
+    private final SingleFlightRegistry singleFlightRegistry;
+    private @Nullable ScheduledFuture<?> estimateJob;
+    private @Nullable InetSocketAddress pskPeer;
+    private ProcessingScope processingScope = ProcessingScope.direct();
+    private TransformationBulkhead.@Nullable Scope transformationScope;
+    private final Consumer<@Nullable String> planListener = this::onPlanChanged;
+    private volatile @Nullable String planProblem;
     private final CoAPDynamicStateDescriptionProvider coapDynamicStateDescriptionProvider;
 
     private CoAPThingConfig config = new CoAPThingConfig();
     private final Map<String, RefreshingUrlCache> urlHandlers = new HashMap<>();
     private final Map<ChannelUID, ItemValueConverter> channels = new HashMap<>();
     private final Map<ChannelUID, String> channelUrls = new HashMap<>();
+    private final Map<ChannelUID, CommandCoalescer> commandCoalescers = new HashMap<>();
 
     public CoAPThingHandler(Thing thing, CoAPClientProvider coapClientProvider,
             ValueTransformationProvider valueTransformationProvider,
@@ -102,8 +134,9 @@ public class CoAPThingHandler extends BaseThingHandler {
         super(thing);
         this.coapClientProvider = coapClientProvider;
         this.coapClient = coapClientProvider.getInsecureClient();
-        // this.rateLimitedHttpClient = new CoAPClientWrapper();
-        // this.rateLimitedHttpClient.setCoapClient(coapClientProvider.getSecureClient());
+        this.congestionController = coapClientProvider.getCongestionController();
+        this.rateLimitedClient = coapClientProvider.getRateLimitedClient();
+        this.singleFlightRegistry = coapClientProvider.getSingleFlightRegistry();
         this.valueTransformationProvider = valueTransformationProvider;
         this.coapDynamicStateDescriptionProvider = coapDynamicStateDescriptionProvider;
     }
@@ -121,16 +154,18 @@ public class CoAPThingHandler extends BaseThingHandler {
             if (key != null) {
                 RefreshingUrlCache refreshingUrlCache = urlHandlers.get(key);
                 if (refreshingUrlCache != null) {
-                    try {
-                        refreshingUrlCache.get().ifPresent(itemValueConverter::process);
-                    } catch (IllegalArgumentException | IllegalStateException e) {
-                        logger.warn("Failed processing REFRESH command for channel {}: {}", channelUID, e.getMessage());
-                    }
+                    // the result is passed to all channels of the URL, concurrent REFRESH commands share the request
+                    refreshingUrlCache.fetch(RequestPriority.REFRESH);
                 }
             }
         } else {
             try {
-                itemValueConverter.send(command);
+                CommandCoalescer coalescer = commandCoalescers.get(channelUID);
+                if (coalescer != null) {
+                    coalescer.send(command);
+                } else {
+                    itemValueConverter.send(command);
+                }
             } catch (IllegalArgumentException e) {
                 logger.warn("Failed to convert command '{}' to channel '{}' for sending", command, channelUID);
             } catch (IllegalStateException e) {
@@ -149,21 +184,34 @@ public class CoAPThingHandler extends BaseThingHandler {
             return;
         }
 
-        // check SSL handling and initialize client
-        // upd: ssl cannot be used with coap
-        logger.info("Using the insecure client for thing '{}'.", thing.getUID());
-        coapClient = coapClientProvider.getInsecureClient();
-        // rateLimitedHttpClient.setHttpClient(coapClient);
-        // rateLimitedHttpClient.setDelay(config.delay);
-
-        int channelCount = thing.getChannels().size();
-        if (channelCount * config.delay > config.refresh * 1000) {
-            // this should prevent the rate limit queue from filling up
-            config.refresh = (channelCount * config.delay) / 1000 + 1;
-            logger.warn(
-                    "{} channels in thing {} with a delay of {} incompatible with the configured refresh time. Refresh-Time increased to the minimum of {}",
-                    channelCount, thing.getUID(), config.delay, config.refresh);
+        // initialize the client for the transport of the scheme
+        String scheme = getScheme(config.baseURL);
+        if (!CoAP.COAP_URI_SCHEME.equals(scheme) && !CoAP.COAP_TCP_URI_SCHEME.equals(scheme)
+                && !CoAP.COAP_SECURE_URI_SCHEME.equals(scheme)) {
+            // Californium has no transport for coap+ws
+            updateStatus(ThingStatus.OFFLINE, ThingStatusDetail.CONFIGURATION_ERROR,
+                    "Unsupported scheme '" + scheme + "', use coap, coaps or coap+tcp");
+            return;
+        }
+        try {
+            if (CoAP.COAP_SECURE_URI_SCHEME.equals(scheme)) {
+                coapClient = createSecureClient();
+            } else {
+                coapClient = coapClientProvider.getInsecureClient(scheme, getHost(config.baseURL));
+            }
+            logger.debug("Using the {} client for thing '{}'", CoAP.COAP_SECURE_URI_SCHEME.equals(scheme) ? "DTLS"
+                    : CoAP.COAP_TCP_URI_SCHEME.equals(scheme) ? "TCP" : "UDP", thing.getUID());
+        } catch (URISyntaxException | MalformedURLException | UnknownHostException e) {
+            updateStatus(ThingStatus.OFFLINE, ThingStatusDetail.CONFIGURATION_ERROR,
+                    "Invalid base URL: " + e.getMessage());
+            return;
+        } catch (IOException e) {
+            updateStatus(ThingStatus.OFFLINE, ThingStatusDetail.COMMUNICATION_ERROR,
+                    "Could not start the " + scheme + " client: " + e.getMessage());
+            return;
         }
+        // all things of the same host share the rate limit, the most restrictive delay wins
+        rateLimitedClient.limitHost(getHost(config.baseURL), thing.getUID().toString(), config.delay);
 
         // remove empty headers
         config.headers.removeIf(String::isBlank);
@@ -202,19 +250,101 @@ public class CoAPThingHandler extends BaseThingHandler {
         }
 
         // create channels
+        processingScope = coapClientProvider.createProcessingScope("coap-" + thing.getUID().getId());
+        transformationScope = coapClientProvider.getTransformationBulkhead().createScope();
         thing.getChannels().forEach(this::createChannel);
 
-        updateStatus(ThingStatus.ONLINE);
+        // poll by multicast group if configured, the remaining URLs are polled individually
+        String multicastGroup = config.multicastGroup;
+        if (multicastGroup != null && !multicastGroup.isBlank() && !isMulticastScheme(scheme)) {
+            logger.warn("Multicast group of thing '{}' is ignored, multicast is not possible with {}, polling and "
+                    + "commands fall back to unicast", thing.getUID(), scheme);
+        } else if (multicastGroup != null && !multicastGroup.isBlank()) {
+            urlHandlers.forEach((key, cache) -> {
+                if (coapClientProvider.getMulticastGroupPoller().register(multicastGroup, cache)) {
+                    // a member that does not answer the group poll has no current state
+                    cache.addFailureListener(() -> channelUrls.forEach((channelUID, channelKey) -> {
+                        if (key.equals(channelKey)) {
+                            updateState(channelUID, UnDefType.UNDEF);
+                        }
+                    }));
+                }
+            });
+        }
+
+        // spread the polls of all things of this host, the planner reports if the rate limit is too low
+        String host = getHost(config.baseURL);
+        coapClientProvider.getPollPlanner().register(host, urlHandlers.values(), planListener);
+
+        // publish the congestion control estimate and the rate limit of the host as properties
+        estimateJob = scheduler.scheduleWithFixedDelay(() -> {
+            CongestionController.Estimate estimate = congestionController.getEstimate(host);
+            if (estimate != null) {
+                updateProperty(PROPERTY_CONGESTION_CONTROL, estimate.toString());
+            }
+            updateProperty(PROPERTY_RATE_LIMIT, rateLimitedClient.getStatus(host));
+        }, config.refresh, config.refresh, TimeUnit.SECONDS);
+
+        if (CoAP.COAP_SECURE_URI_SCHEME.equals(scheme)) {
+            // things initialize concurrently, so the handshakes run in parallel instead of on the first poll
+            prewarmConnection();
+        }
+
+        updatePlanStatus();
+    }
+
+    private void onPlanChanged(@Nullable String problem) {
+        planProblem = problem;
+        if (thing.getStatus() == ThingStatus.ONLINE) {
+            // the plan of the host changed because another thing was added or removed
+            updatePlanStatus();
+        }
+    }
+
+    private void updatePlanStatus() {
+        String planProblem = this.planProblem;
+        if (planProblem != null) {
+            updateStatus(ThingStatus.ONLINE, ThingStatusDetail.NONE, planProblem);
+        } else {
+            updateStatus(ThingStatus.ONLINE);
+        }
     }
 
     @Override
     public void dispose() {
         // stop update tasks
+        coapClientProvider.getPollPlanner().unregister(getHost(config.baseURL), urlHandlers.values(), planListener);
+        urlHandlers.values().forEach(coapClientProvider.getMulticastGroupPoller()::unregister);
+        coapClientProvider.getMulticastGroupWriter().unregister(thing.getUID().toString());
         urlHandlers.values().forEach(RefreshingUrlCache::stop);
-        // rateLimitedHttpClient.shutdown();
+        rateLimitedClient.unlimitHost(getHost(config.baseURL), thing.getUID().toString());
+        // interrupt transformations still running for this thing
+        processingScope.close();
+        TransformationBulkhead.Scope transformationScope = this.transformationScope;
+        if (transformationScope != null) {
+            transformationScope.close();
+            this.transformationScope = null;
+        }
+        InetSocketAddress pskPeer = this.pskPeer;
+        if (pskPeer != null) {
+            try {
+                coapClientProvider.getSecureEndpoint().removePsk(pskPeer);
+            } catch (IOException e) {
+                logger.debug("Failed to remove the pre-shared key of '{}': {}", pskPeer, e.getMessage());
+            }
+            this.pskPeer = null;
+        }
+        ScheduledFuture<?> estimateJob = this.estimateJob;
+        if (estimateJob != null) {
+            estimateJob.cancel(false);
+            this.estimateJob = null;
+        }
+
+        commandCoalescers.values().forEach(CommandCoalescer::stop);
 
         // clear lists
         urlHandlers.clear();
+        commandCoalescers.clear();
         channels.clear();
         channelUrls.clear();
 
@@ -248,7 +378,7 @@ public class CoAPThingHandler extends BaseThingHandler {
         switch (acceptedItemType) {
             case "Color":
                 itemValueConverter = createItemConverter(ColorItemConverter::new, commandUrl, channelUID,
-                        channelConfig);
+                        channelConfig, true);
                 break;
             case "DateTime":
                 itemValueConverter = createGenericItemConverter(commandUrl, channelUID, channelConfig,
@@ -256,7 +386,7 @@ public class CoAPThingHandler extends BaseThingHandler {
                 break;
             case "Dimmer":
                 itemValueConverter = createItemConverter(DimmerItemConverter::new, commandUrl, channelUID,
-                        channelConfig);
+                        channelConfig, true);
                 break;
             case "Contact":
             case "Switch":
@@ -279,7 +409,7 @@ public class CoAPThingHandler extends BaseThingHandler {
                 break;
             case "Rollershutter":
                 itemValueConverter = createItemConverter(RollershutterItemConverter::new, commandUrl, channelUID,
-                        channelConfig);
+                        channelConfig, true);
                 break;
             case "String":
                 itemValueConverter = createGenericItemConverter(commandUrl, channelUID, channelConfig, StringType::new);
@@ -290,17 +420,35 @@ public class CoAPThingHandler extends BaseThingHandler {
         }
 
         channels.put(channelUID, itemValueConverter);
+        String multicastGroup = config.multicastGroup;
+        if (config.multicastWrite && multicastGroup != null && !multicastGroup.isBlank()
+                && isMulticastScheme(getScheme(commandUrl)) && channelConfig.mode != CoAPChannelMode.READONLY) {
+            coapClientProvider.getMulticastGroupWriter().register(getMulticastWriteKey(multicastGroup, commandUrl),
+                    thing.getUID().toString());
+        }
         if (channelConfig.mode != CoAPChannelMode.WRITEONLY) {
-            // we need a key consisting of stateContent and URL, only if both are equal, we can use the same cache
-            String key = channelConfig.stateContent + "$" + stateUrl;
+            // we need a key consisting of stateContent, message type and URL, only if all are equal, we can use the
+            // same cache
+            Type messageType = getMessageType(channelConfig);
+            String key = channelConfig.stateContent + "$" + messageType + "$" + stateUrl;
             channelUrls.put(channelUID, key);
-            // k -> new RefreshingUrlCache(scheduler, //rateLimitedHttpClient, stateUrl,
-
-            urlHandlers
-                    .computeIfAbsent(key,
-                            k -> new RefreshingUrlCache(scheduler, rateLimitedHttpClient.getCoapClient(), stateUrl,
-                                    channelConfig.escapedUrl, config, channelConfig.stateContent))
-                    .addConsumer(itemValueConverter::process);
+            RefreshingUrlCache refreshingUrlCache = urlHandlers.computeIfAbsent(key,
+                    k -> new RefreshingUrlCache(coapClientProvider.getTimer(), processingScope, coapClient,
+                            congestionController, rateLimitedClient, singleFlightRegistry, stateUrl,
+                            channelConfig.escapedUrl, messageType, config, channelConfig.stateContent));
+            refreshingUrlCache.setRefreshBounds(channelConfig.minRefresh, channelConfig.maxRefresh);
+            String stateTransformation = channelConfig.stateTransformation;
+            if (stateTransformation != null) {
+                refreshingUrlCache.addJsonPath(stateTransformation);
+            }
+            TransformationBulkhead.Scope transformationScope = this.transformationScope;
+            if (stateTransformation != null && !stateTransformation.isEmpty() && transformationScope != null) {
+                // transformations may be slow, the response handling only hands them off
+                refreshingUrlCache.addConsumer(content -> transformationScope.submit(channelUID.getAsString(),
+                        stateTransformation, () -> itemValueConverter.process(content)), channelConfig.forceUpdate);
+            } else {
+                refreshingUrlCache.addConsumer(itemValueConverter::process, channelConfig.forceUpdate);
+            }
         }
 
         StateDescription stateDescription = StateDescriptionFragmentBuilder.create()
@@ -311,70 +459,238 @@ public class CoAPThingHandler extends BaseThingHandler {
         }
     }
 
-    private void sendCoAPValue(String commandUrl, boolean escapedUrl, String command) {
-        sendCoAPValue(commandUrl, escapedUrl, command, false);
+    /**
+     * send a command value, by multicast if all members of the multicast group receive the same command
+     *
+     * @param commandUrl the command URL (not formatted)
+     * @param channelUID the channel of the command
+     * @param channelConfig the configuration of the channel
+     * @param command the command
+     * @param value the command value
+     * @return a future that completes when the command was sent
+     */
+    private CompletableFuture<?> sendCommand(String commandUrl, ChannelUID channelUID,
+            CoAPChannelConfig channelConfig, Command command, String value) {
+        String multicastGroup = config.multicastGroup;
+        if (!config.multicastWrite || multicastGroup == null || multicastGroup.isBlank()
+                || !isMulticastScheme(getScheme(commandUrl))) {
+            return sendCoAPValue(commandUrl, channelConfig.escapedUrl, getMessageType(channelConfig), command, value);
+        }
+        try {
+            URI uri = formatCommandUri(commandUrl, channelConfig.escapedUrl, value);
+            byte[] payload = getCommandPayload(command, value);
+            if (payload.length > config.blockSize) {
+                // block-wise transfers are not possible with multicast
+                return sendCoAPValue(commandUrl, channelConfig.escapedUrl, getMessageType(channelConfig), command,
+                        value);
+            }
+            Runnable verify = null;
+            String stateKey = channelUrls.get(channelUID);
+            RefreshingUrlCache cache = stateKey != null ? urlHandlers.get(stateKey) : null;
+            if (config.multicastVerify && cache != null) {
+                // multicast requests are not confirmed, read the state of the member to verify it
+                verify = () -> cache.fetch(RequestPriority.REFRESH);
+            }
+            return coapClientProvider.getMulticastGroupWriter().submit(
+                    getMulticastWriteKey(multicastGroup, commandUrl), multicastGroup, thing.getUID().toString(), uri,
+                    payload, groupUri -> {
+                        Request request = createCommandRequest(groupUri, CoAP.Type.NON);
+                        request.setPayload(payload);
+                        return request;
+                    }, () -> sendCoAPValue(commandUrl, channelConfig.escapedUrl, getMessageType(channelConfig),
+                            command, value),
+                    verify);
+        } catch (IllegalArgumentException | URISyntaxException | MalformedURLException e) {
+            logger.warn("Creating request for '{}' failed: {}", commandUrl, e.getMessage());
+            return CompletableFuture.completedFuture(null);
+        }
     }
 
-    private void sendCoAPValue(String commandUrl, boolean escapedUrl, String command, boolean isRetry) {
+    /**
+     * send a command value
+     *
+     * @param commandUrl the command URL (not formatted)
+     * @param escapedUrl if the URL is already escaped
+     * @param messageType the message type of the request (block-wise transfers always use CON)
+     * @param command the command
+     * @param value the command value
+     * @return a future that completes when the exchange is finished
+     */
+    private CompletableFuture<?> sendCoAPValue(String commandUrl, boolean escapedUrl, Type messageType,
+            Command command, String value) {
         try {
-            // format URL
-            String url = String.format(commandUrl, new Date(), command);
-            URI uri = escapedUrl ? new URI(url) : Util.uriFromString(url);
+            URI uri = formatCommandUri(commandUrl, escapedUrl, value);
+
+            CompletableFuture<@Nullable Content> f = new CompletableFuture<>();
+            f.exceptionally(e -> {
+                if (e instanceof CoapAuthException) {
+                    logger.warn("Authentication failed for '{}': {}", uri, e.getMessage());
+                }
+                return null;
+            });
+            CoAPResponseListener responseListener = new CoAPResponseListener(uri, f, null, config.bufferSize);
+
+            byte[] payload = getCommandPayload(command, value);
+            rateLimitedClient.acquire(uri.getHost(), RequestPriority.COMMAND).whenComplete((v, e) -> {
+                if (e != null) {
+                    logger.warn("Sending to '{}' failed: {}", uri, e.getMessage());
+                    f.complete(null);
+                } else if (payload.length > config.blockSize && !CoAP.isTcpScheme(uri.getScheme())) {
+                    // large payloads are sent block-wise (RFC 7959), with TCP the stack uses BERT blocks if needed
+                    logger.trace("Sending {} bytes block-wise to '{}'", payload.length, uri);
+                    new Block1Transfer(coapClient, congestionController, uri,
+                            () -> createCommandRequest(uri, CoAP.Type.CON), payload, config.blockSize,
+                            responseListener).start();
+                } else {
+                    Request request = createCommandRequest(uri, messageType);
+                    request.setPayload(payload);
+                    if (messageType == CoAP.Type.NON) {
+                        // a NON request is not retransmitted, if there is no response the exchange must be released
+                        coapClientProvider.getTimer().schedule(() -> {
+                            if (!f.isDone()) {
+                                request.cancel();
+                                f.complete(null);
+                            }
+                        }, config.timeout, TimeUnit.MILLISECONDS);
+                    }
+                    if (logger.isTraceEnabled()) {
+                        logger.trace("Sending to '{}': {}", uri, Util.requestToLogString(request));
+                    }
+                    congestionController.send(uri.getHost(), coapClient, request, responseListener,
+                            RequestPriority.COMMAND);
+                }
+            });
+            return f;
+        } catch (IllegalArgumentException | URISyntaxException | MalformedURLException e) {
+            logger.warn("Creating request for '{}' failed: {}", commandUrl, e.getMessage());
+            return CompletableFuture.completedFuture(null);
+        }
+    }
 
-            // build request
-            //HttpClient http = new HttpClient();
-            //Request request = http.newRequest(uri).timeout(config.timeout, TimeUnit.MILLISECONDS)
+    private Type getMessageType(CoAPChannelConfig channelConfig) {
+        Type messageType = channelConfig.messageType;
+        return messageType != null ? messageType : config.messageType;
+    }
 
-            Request request = (Request) coapClient.getCoapClient().get();
+    private URI formatCommandUri(String commandUrl, boolean escapedUrl, String value)
+            throws URISyntaxException, MalformedURLException {
+        String url = String.format(commandUrl, new Date(), value);
+        return escapedUrl ? new URI(url) : Util.uriFromString(url);
+    }
 
+    private byte[] getCommandPayload(Command command, String value) {
+        if (config.commandMethod == CoAP.Code.GET) {
+            return new byte[0];
+        }
+        return CborReader.MEDIA_TYPE.equals(config.contentType) ? CborWriter.encodeCommand(command, value)
+                : value.getBytes(StandardCharsets.UTF_8);
+    }
 
+    /**
+     * the key of a command resource within a multicast group, things with the same key are considered identical
+     */
+    private String getMulticastWriteKey(String multicastGroup, String commandUrl) {
+        String path = commandUrl.startsWith(config.baseURL) ? commandUrl.substring(config.baseURL.length())
+                : commandUrl;
+        return multicastGroup + "$" + config.commandMethod + "$" + path;
+    }
 
-            //timeout(config.timeout, TimeUnit.MILLISECONDS)
-                    .method(config.commandMethod);
-            if (config.commandMethod != CoAP.Code.GET) {
-                final String contentType = config.contentType;
-                if (contentType != null) {
-                    request.content(new StringContentProvider(command), contentType);
-                } else {
-                    request.content(new StringContentProvider(command));
-                }
+    private Request createCommandRequest(URI uri, Type messageType) {
+        Request request = new Request(config.commandMethod, messageType);
+        request.setURI(uri);
+        final String contentType = config.contentType;
+        if (config.commandMethod != CoAP.Code.GET && contentType != null) {
+            request.getOptions().setContentFormat(MediaTypeRegistry.parse(contentType));
+        }
+        return request;
+    }
+
+    /**
+     * get the DTLS client and register the pre-shared key of the destination
+     */
+    private CoapClient createSecureClient() throws IOException, URISyntaxException {
+        CoAPSecureEndpoint secureEndpoint = coapClientProvider.getSecureEndpoint();
+        if (!config.pskIdentity.isEmpty()) {
+            URI uri = Util.uriFromString(config.baseURL);
+            String host = uri.getHost();
+            if (host == null) {
+                throw new URISyntaxException(config.baseURL, "no host");
             }
+            int port = uri.getPort() != -1 ? uri.getPort() : CoAP.DEFAULT_COAP_SECURE_PORT;
+            InetSocketAddress peer = new InetSocketAddress(InetAddress.getByName(host), port);
+            secureEndpoint.addPsk(peer, config.pskIdentity, getPskKey());
+            pskPeer = peer;
+        }
+        return secureEndpoint.getClient();
+    }
 
-            config.headers.forEach(header -> {
-                String[] keyValuePair = header.split("=", 2);
-                if (keyValuePair.length == 2) {
-                    request.header(keyValuePair[0], keyValuePair[1]);
-                } else {
-                    logger.warn("Splitting header '{}' failed. No '=' was found. Ignoring", header);
+    private byte[] getPskKey() {
+        String key = config.pskKey;
+        if (key.startsWith("0x") && key.length() % 2 == 0) {
+            try {
+                byte[] bytes = new byte[(key.length() - 2) / 2];
+                for (int i = 0; i < bytes.length; i++) {
+                    bytes[i] = (byte) Integer.parseInt(key.substring(2 + 2 * i, 4 + 2 * i), 16);
                 }
-            });
-
-            if (logger.isTraceEnabled()) {
-                logger.trace("Sending to '{}': {}", uri, Util.requestToLogString(request));
+                return bytes;
+            } catch (NumberFormatException e) {
+                logger.debug("Pre-shared key of thing '{}' is not a hex value, using it as text", thing.getUID());
             }
+        }
+        return key.getBytes(StandardCharsets.UTF_8);
+    }
 
-            CompletableFuture<@Nullable Content> f = new CompletableFuture<>();
-            f.exceptionally(e -> {
-                if (e instanceof HttpAuthException) {
-                    if (isRetry) {
-                        logger.warn("Retry after authentication failure failed again for '{}', failing here", uri);
-                    } else {
-                        AuthenticationStore authStore = coapClient.getAuthenticationStore();
-                        Authentication.Result authResult = authStore.findAuthenticationResult(uri);
-                        if (authResult != null) {
-                            authStore.removeAuthenticationResult(authResult);
-                            logger.debug("Cleared authentication result for '{}', retrying immediately", uri);
-                            sendCoAPValue(commandUrl, escapedUrl, command, true);
-                        } else {
-                            logger.warn("Could not find authentication result for '{}', failing here", uri);
+    /**
+     * send a CoAP ping (RFC 7252, section 4.3), which performs the DTLS handshake or resumes a restored connection
+     */
+    private void prewarmConnection() {
+        try {
+            URI uri = Util.uriFromString(config.baseURL);
+            Request ping = new Request(null, CoAP.Type.CON);
+            ping.setToken(Token.EMPTY);
+            ping.setURI(uri);
+            rateLimitedClient.acquire(uri.getHost(), RequestPriority.POLL).whenComplete((v, e) -> {
+                if (e == null) {
+                    coapClient.advanced(new CoapHandler() {
+                        @Override
+                        public void onLoad(@Nullable CoapResponse response) {
+                            logger.trace("Connection to '{}' established", uri);
                         }
-                    }
+
+                        @Override
+                        public void onError() {
+                            // a ping is answered by a reset, the connection is established nevertheless
+                            logger.trace("Ping of '{}' completed", uri);
+                        }
+                    }, ping);
                 }
-                return null;
             });
-            request.send(new HttpResponseListener(f, null, config.bufferSize));
-        } catch (IllegalArgumentException | URISyntaxException | MalformedURLException e) {
-            logger.warn("Creating request for '{}' failed: {}", commandUrl, e.getMessage());
+        } catch (URISyntaxException | MalformedURLException | IllegalArgumentException e) {
+            logger.debug("Cannot pre-warm connection to '{}': {}", config.baseURL, e.getMessage());
+        }
+    }
+
+    /**
+     * check if multicast is possible with a scheme, DTLS (coaps) and TCP have no multicast
+     *
+     * @param scheme the scheme of the URL
+     * @return true if the scheme is coap
+     */
+    private boolean isMulticastScheme(String scheme) {
+        return CoAP.COAP_URI_SCHEME.equals(scheme);
+    }
+
+    private String getScheme(String url) {
+        int schemeEnd = url.indexOf(':');
+        return schemeEnd > 0 ? url.substring(0, schemeEnd).toLowerCase() : "";
+    }
+
+    private String getHost(String url) {
+        try {
+            String host = Util.uriFromString(url).getHost();
+            return host != null ? host : url;
+        } catch (MalformedURLException | URISyntaxException e) {
+            return url;
         }
     }
 
@@ -393,10 +709,34 @@ public class CoAPThingHandler extends BaseThingHandler {
 
     private ItemValueConverter createItemConverter(AbstractTransformingItemConverter.Factory factory, String commandUrl,
             ChannelUID channelUID, CoAPChannelConfig channelConfig) {
-        return factory.create(state -> updateState(channelUID, state), command -> postCommand(channelUID, command),
-                command -> sendCoAPValue(commandUrl, channelConfig.escapedUrl, command),
+        return createItemConverter(factory, commandUrl, channelUID, channelConfig, false);
+    }
+
+    /**
+     * create an item converter
+     *
+     * if coalesce is set, only one command per channel is in flight and newer commands replace the pending one
+     * (e.g. for dimmer sliders, where only the last value is relevant)
+     */
+    private ItemValueConverter createItemConverter(AbstractTransformingItemConverter.Factory factory, String commandUrl,
+            ChannelUID channelUID, CoAPChannelConfig channelConfig, boolean coalesce) {
+        // the exchange of the last value sent by the converter, so the coalescer knows when it is finished
+        AtomicReference<CompletableFuture<?>> exchange = new AtomicReference<>(CompletableFuture.completedFuture(null));
+        BiConsumer<Command, String> sender = (command, value) -> exchange
+                .set(sendCommand(commandUrl, channelUID, channelConfig, command, value));
+        ItemValueConverter itemValueConverter = factory.create(state -> updateState(channelUID, state),
+                command -> postCommand(channelUID, command), sender,
                 valueTransformationProvider.getValueTransformation(channelConfig.stateTransformation),
                 valueTransformationProvider.getValueTransformation(channelConfig.commandTransformation), channelConfig);
+        if (coalesce) {
+            // the converter is called when the command is sent, so it converts with the state at that time
+            commandCoalescers.put(channelUID, new CommandCoalescer(command -> {
+                exchange.set(CompletableFuture.completedFuture(null));
+                itemValueConverter.send(command);
+                return exchange.get();
+            }));
+        }
+        return itemValueConverter;
     }
 
     private ItemValueConverter createGenericItemConverter(String commandUrl, ChannelUID channelUID,
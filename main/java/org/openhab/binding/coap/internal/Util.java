@@ -17,14 +17,9 @@ import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
-import java.nio.charset.StandardCharsets;
-import java.util.stream.Collectors;
-import java.util.stream.StreamSupport;
 
+import org.eclipse.californium.core.coap.Request;
 import org.eclipse.jdt.annotation.NonNullByDefault;
-import org.eclipse.jetty.client.api.ContentProvider;
-import org.eclipse.jetty.client.api.Request;
-import org.eclipse.jetty.http.HttpField;
 
 /**
  * The {@link Util} is a utility class
@@ -35,19 +30,14 @@ import org.eclipse.jetty.http.HttpField;
 public class Util {
 
     /**
-     * create a log string from a {@link org.eclipse.jetty.client.api.Request}
+     * create a log string from a {@link org.eclipse.californium.core.coap.Request}
      *
      * @param request the request to log
      * @return the string representing the request
      */
     public static String requestToLogString(Request request) {
-        ContentProvider contentProvider = request.getContent();
-        String contentString = contentProvider == null ? "null"
-                : StreamSupport.stream(contentProvider.spliterator(), false)
-                        .map(b -> StandardCharsets.UTF_8.decode(b).toString()).collect(Collectors.joining(", "));
-        String logString = "Method = {" + request.getMethod() + "}, Headers = {"
-                + request.getHeaders().stream().map(HttpField::toString).collect(Collectors.joining(", "))
-                + "}, Content = {" + contentString + "}";
+        String logString = "Method = {" + request.getCode() + "}, Type = {" + request.getType() + "}, Options = {"
+                + request.getOptions() + "}, Content = {" + request.getPayloadString() + "}";
 
         return logString;
     }
@@ -61,8 +51,14 @@ public class Util {
      * @throws URISyntaxException
      */
     public static URI uriFromString(String s) throws MalformedURLException, URISyntaxException {
-        URL url = new URL(s);
-        return new URI(url.getProtocol(), url.getUserInfo(), IDN.toASCII(url.getHost()), url.getPort(), url.getPath(),
+        int schemeEnd = s.indexOf(':');
+        if (schemeEnd < 1) {
+            throw new MalformedURLException("no scheme: " + s);
+        }
+        // java.net.URL has no handler for the coap schemes, so parsing is done with a known scheme
+        String scheme = s.substring(0, schemeEnd);
+        URL url = new URL("http" + s.substring(schemeEnd));
+        return new URI(scheme, url.getUserInfo(), IDN.toASCII(url.getHost()), url.getPort(), url.getPath(),
                 url.getQuery(), url.getRef());
     }
 }
@@ -0,0 +1,427 @@
+/**
+ * Copyright (c) 2010-2022 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.coap.internal.cbor;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * The {@link CborReader} decodes CBOR (RFC 8949) items from a payload. The items are read one after the other, values
+ * that are not needed are skipped without decoding them.
+ *
+ * Integers are decoded as {@link Long} (or {@link BigInteger} if they don't fit), floating point numbers as
+ * {@link Float} or {@link Double}, byte strings as byte[], arrays as {@link List} and maps as {@link Map}. Null and
+ * undefined are decoded as null.
+ *
+ * @author Jan N. Klug - Initial contribution
+ */
+@NonNullByDefault
+public class CborReader {
+    public static final String MEDIA_TYPE = "application/cbor";
+
+    private static final int MAJOR_UNSIGNED = 0;
+    private static final int MAJOR_NEGATIVE = 1;
+    private static final int MAJOR_BYTES = 2;
+    private static final int MAJOR_TEXT = 3;
+    private static final int MAJOR_ARRAY = 4;
+    private static final int MAJOR_MAP = 5;
+    private static final int MAJOR_TAG = 6;
+    private static final int INDEFINITE = 31;
+    private static final int BREAK = 0xff;
+    private static final int TAG_POSITIVE_BIGNUM = 2;
+    private static final int TAG_NEGATIVE_BIGNUM = 3;
+    private static final int TAG_DECIMAL_FRACTION = 4;
+    // nesting limit, a malicious payload must not overflow the stack
+    private static final int MAX_DEPTH = 32;
+
+    private final byte[] data;
+    private int pos = 0;
+
+    public CborReader(byte[] data) {
+        this.data = data;
+    }
+
+    public boolean hasNext() {
+        return pos < data.length;
+    }
+
+    /**
+     * read the next item
+     *
+     * @return the value
+     * @throws IllegalArgumentException if the payload is not valid CBOR
+     */
+    public @Nullable Object read() {
+        return read(0);
+    }
+
+    /**
+     * skip the next item without decoding it
+     *
+     * @throws IllegalArgumentException if the payload is not valid CBOR
+     */
+    public void skip() {
+        skip(0);
+    }
+
+    /**
+     * move to a nested item, the item is read with {@link #read()} afterwards
+     *
+     * map entries are selected by their key (text or integer), array elements by their index
+     *
+     * @param path the map keys and array indices
+     * @return true if the item was found
+     * @throws IllegalArgumentException if the payload is not valid CBOR
+     */
+    public boolean select(List<Object> path) {
+        for (Object segment : path) {
+            if (!hasNext()) {
+                return false;
+            }
+            int initial = data[pos] & 0xff;
+            int major = initial >>> 5;
+            if (major == MAJOR_MAP) {
+                pos++;
+                long count = readLength(initial);
+                boolean found = false;
+                for (long i = 0; count == -1 ? !isBreak() : i < count; i++) {
+                    if (matches(read(1), segment)) {
+                        found = true;
+                        break;
+                    }
+                    skip(1);
+                }
+                if (!found) {
+                    return false;
+                }
+            } else if (major == MAJOR_ARRAY && segment instanceof Integer) {
+                pos++;
+                long count = readLength(initial);
+                int index = (Integer) segment;
+                for (long i = 0; i < index; i++) {
+                    if (count == -1 ? isBreak() : i >= count) {
+                        return false;
+                    }
+                    skip(1);
+                }
+                if (count == -1 ? isBreak() : index >= count) {
+                    return false;
+                }
+            } else {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean matches(@Nullable Object key, Object segment) {
+        if (key instanceof Long && segment instanceof Integer) {
+            return (Long) key == ((Integer) segment).longValue();
+        }
+        return key != null && key.toString().equals(segment.toString());
+    }
+
+    private boolean isBreak() {
+        if (!hasNext()) {
+            throw new IllegalArgumentException("Unexpected end of CBOR data");
+        }
+        if ((data[pos] & 0xff) == BREAK) {
+            pos++;
+            return true;
+        }
+        return false;
+    }
+
+    private @Nullable Object read(int depth) {
+        if (depth > MAX_DEPTH) {
+            throw new IllegalArgumentException("CBOR data nested too deep");
+        }
+        int initial = readByte();
+        int major = initial >>> 5;
+        int info = initial & 0x1f;
+        switch (major) {
+            case MAJOR_UNSIGNED:
+                return unsigned(readArgument(info));
+            case MAJOR_NEGATIVE: {
+                long argument = readArgument(info);
+                return argument >= 0 ? (Object) (-1 - argument)
+                        : BigInteger.valueOf(-1).subtract(new BigInteger(Long.toUnsignedString(argument)));
+            }
+            case MAJOR_BYTES:
+                return readString(initial);
+            case MAJOR_TEXT:
+                return new String(readString(initial), StandardCharsets.UTF_8);
+            case MAJOR_ARRAY: {
+                long count = readLength(initial);
+                List<@Nullable Object> array = new ArrayList<>();
+                for (long i = 0; count == -1 ? !isBreak() : i < count; i++) {
+                    array.add(read(depth + 1));
+                }
+                return array;
+            }
+            case MAJOR_MAP: {
+                long count = readLength(initial);
+                Map<@Nullable Object, @Nullable Object> map = new LinkedHashMap<>();
+                for (long i = 0; count == -1 ? !isBreak() : i < count; i++) {
+                    map.put(read(depth + 1), read(depth + 1));
+                }
+                return map;
+            }
+            case MAJOR_TAG:
+                return readTagged(readArgument(info), depth);
+            default:
+                return readSimple(info);
+        }
+    }
+
+    private @Nullable Object readTagged(long tag, int depth) {
+        Object value = read(depth + 1);
+        if ((tag == TAG_POSITIVE_BIGNUM || tag == TAG_NEGATIVE_BIGNUM) && value instanceof byte[]) {
+            BigInteger number = new BigInteger(1, (byte[]) value);
+            return tag == TAG_POSITIVE_BIGNUM ? number : BigInteger.valueOf(-1).subtract(number);
+        } else if (tag == TAG_DECIMAL_FRACTION && value instanceof List && ((List<?>) value).size() == 2) {
+            List<?> fraction = (List<?>) value;
+            Object exponent = fraction.get(0);
+            Object mantissa = fraction.get(1);
+            if (exponent instanceof Long && (mantissa instanceof Long || mantissa instanceof BigInteger)) {
+                BigInteger unscaled = mantissa instanceof Long ? BigInteger.valueOf((Long) mantissa)
+                        : (BigInteger) mantissa;
+                return new BigDecimal(unscaled, -((Long) exponent).intValue());
+            }
+        }
+        // other tags (e.g. date/time) don't change the representation of the value
+        return value;
+    }
+
+    private @Nullable Object readSimple(int info) {
+        switch (info) {
+            case 20:
+                return false;
+            case 21:
+                return true;
+            case 22:
+            case 23:
+                return null;
+            case 25:
+                return halfToFloat((int) readBytes(2));
+            case 26:
+                return Float.intBitsToFloat((int) readBytes(4));
+            case 27:
+                return Double.longBitsToDouble(readBytes(8));
+            default:
+                throw new IllegalArgumentException("Unsupported CBOR simple value " + info);
+        }
+    }
+
+    private void skip(int depth) {
+        if (depth > MAX_DEPTH) {
+            throw new IllegalArgumentException("CBOR data nested too deep");
+        }
+        int initial = readByte();
+        int major = initial >>> 5;
+        int info = initial & 0x1f;
+        switch (major) {
+            case MAJOR_BYTES:
+            case MAJOR_TEXT: {
+                long length = readLength(initial);
+                if (length == -1) {
+                    while (!isBreak()) {
+                        skip(depth + 1);
+                    }
+                } else {
+                    advance(length);
+                }
+                break;
+            }
+            case MAJOR_ARRAY:
+            case MAJOR_MAP: {
+                long count = readLength(initial);
+                int items = major == MAJOR_MAP ? 2 : 1;
+                for (long i = 0; count == -1 ? !isBreak() : i < count; i++) {
+                    for (int j = 0; j < items; j++) {
+                        skip(depth + 1);
+                    }
+                }
+                break;
+            }
+            case MAJOR_TAG:
+                readArgument(info);
+                skip(depth + 1);
+                break;
+            default:
+                if (info < 24 || major != 7) {
+                    readArgument(info);
+                } else if (info >= 24 && info <= 27) {
+                    advance(1 << (info - 24));
+                } else {
+                    throw new IllegalArgumentException("Unsupported CBOR simple value " + info);
+                }
+        }
+    }
+
+    private byte[] readString(int initial) {
+        long length = readLength(initial);
+        if (length == -1) {
+            // indefinite length: concatenate the chunks
+            int major = initial >>> 5;
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            while (!isBreak()) {
+                int chunk = readByte();
+                if (chunk >>> 5 != major || (chunk & 0x1f) == INDEFINITE) {
+                    throw new IllegalArgumentException("Invalid chunk in CBOR string");
+                }
+                byte[] bytes = readString(chunk);
+                buffer.write(bytes, 0, bytes.length);
+            }
+            return buffer.toByteArray();
+        }
+        int start = pos;
+        advance(length);
+        byte[] bytes = new byte[(int) length];
+        System.arraycopy(data, start, bytes, 0, bytes.length);
+        return bytes;
+    }
+
+    /**
+     * read the length of a string, array or map
+     *
+     * @return the length or -1 for indefinite length
+     */
+    private long readLength(int initial) {
+        int info = initial & 0x1f;
+        if (info == INDEFINITE) {
+            return -1;
+        }
+        long length = readArgument(info);
+        if (length < 0 || length > data.length - pos && (initial >>> 5) <= MAJOR_TEXT) {
+            throw new IllegalArgumentException("Invalid length in CBOR data");
+        }
+        return length;
+    }
+
+    private long readArgument(int info) {
+        if (info < 24) {
+            return info;
+        } else if (info <= 27) {
+            return readBytes(1 << (info - 24));
+        }
+        throw new IllegalArgumentException("Invalid additional information " + info + " in CBOR data");
+    }
+
+    private long readBytes(int count) {
+        if (data.length - pos < count) {
+            throw new IllegalArgumentException("Unexpected end of CBOR data");
+        }
+        long value = 0;
+        for (int i = 0; i < count; i++) {
+            value = (value << 8) | (data[pos++] & 0xff);
+        }
+        return value;
+    }
+
+    private int readByte() {
+        if (!hasNext()) {
+            throw new IllegalArgumentException("Unexpected end of CBOR data");
+        }
+        return data[pos++] & 0xff;
+    }
+
+    private void advance(long count) {
+        if (count < 0 || data.length - pos < count) {
+            throw new IllegalArgumentException("Unexpected end of CBOR data");
+        }
+        pos += (int) count;
+    }
+
+    private static Object unsigned(long value) {
+        return value >= 0 ? (Object) value : new BigInteger(Long.toUnsignedString(value));
+    }
+
+    private static float halfToFloat(int half) {
+        int exponent = (half >> 10) & 0x1f;
+        int mantissa = half & 0x3ff;
+        float value;
+        if (exponent == 0) {
+            value = mantissa * (float) Math.pow(2, -24);
+        } else if (exponent != 31) {
+            value = (mantissa + 1024) * (float) Math.pow(2, exponent - 25);
+        } else {
+            value = mantissa == 0 ? Float.POSITIVE_INFINITY : Float.NaN;
+        }
+        return (half & 0x8000) != 0 ? -value : value;
+    }
+
+    /**
+     * get the text representation of a decoded value, arrays and maps are represented as JSON
+     *
+     * @param value the value
+     * @return the text
+     */
+    public static String toString(@Nullable Object value) {
+        StringBuilder builder = new StringBuilder();
+        appendJson(builder, value, false);
+        return builder.toString();
+    }
+
+    private static void appendJson(StringBuilder builder, @Nullable Object value, boolean quoted) {
+        if (value instanceof Map) {
+            builder.append('{');
+            boolean first = true;
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                if (!first) {
+                    builder.append(',');
+                }
+                first = false;
+                appendJson(builder, String.valueOf(entry.getKey()), true);
+                builder.append(':');
+                appendJson(builder, entry.getValue(), true);
+            }
+            builder.append('}');
+        } else if (value instanceof List) {
+            builder.append('[');
+            boolean first = true;
+            for (Object element : (List<?>) value) {
+                if (!first) {
+                    builder.append(',');
+                }
+                first = false;
+                appendJson(builder, element, true);
+            }
+            builder.append(']');
+        } else if (value instanceof byte[]) {
+            String hex = bytesToHex((byte[]) value);
+            builder.append(quoted ? "\"" + hex + "\"" : hex);
+        } else if (value instanceof String && quoted) {
+            builder.append('"').append(((String) value).replace("\\", "\\\\").replace("\"", "\\\"")).append('"');
+        } else {
+            builder.append(value);
+        }
+    }
+
+    private static String bytesToHex(byte[] bytes) {
+        StringBuilder builder = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            builder.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return builder.toString();
+    }
+}
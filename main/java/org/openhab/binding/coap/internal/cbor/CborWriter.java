@@ -0,0 +1,178 @@
+/**
+ * Copyright (c) 2010-2022 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.coap.internal.cbor;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+import org.openhab.core.library.types.DecimalType;
+import org.openhab.core.library.types.OnOffType;
+import org.openhab.core.library.types.OpenClosedType;
+import org.openhab.core.library.types.QuantityType;
+import org.openhab.core.types.Command;
+
+/**
+ * The {@link CborWriter} encodes values as CBOR (RFC 8949) items. It supports the types decoded by the
+ * {@link CborReader}.
+ *
+ * @author Jan N. Klug - Initial contribution
+ */
+@NonNullByDefault
+public class CborWriter {
+    private static final BigInteger LONG_MIN = BigInteger.valueOf(Long.MIN_VALUE);
+    private static final BigInteger LONG_MAX = BigInteger.valueOf(Long.MAX_VALUE);
+
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+    /**
+     * encode a value
+     *
+     * @param value the value
+     * @return the encoded item
+     * @throws IllegalArgumentException if the type of the value is not supported
+     */
+    public static byte[] encode(@Nullable Object value) {
+        CborWriter writer = new CborWriter();
+        writer.write(value);
+        return writer.buffer.toByteArray();
+    }
+
+    /**
+     * encode a command value, the CBOR type is chosen by the type of the command
+     *
+     * ON/OFF and OPEN/CLOSED are encoded as booleans, numeric commands as numbers and all other commands (including
+     * strings that look like numbers) as text. A numeric command that was transformed to something that is not a
+     * number is sent as text.
+     *
+     * @param command the command
+     * @param value the value of the command after the command transformation
+     * @return the encoded item
+     */
+    public static byte[] encodeCommand(Command command, String value) {
+        if (command instanceof OnOffType || command instanceof OpenClosedType) {
+            // the value is the mapped text (e.g. onValue), the boolean is taken from the command itself
+            return encode(command == OnOffType.ON || command == OpenClosedType.OPEN);
+        } else if (command instanceof QuantityType<?> && value.equals(command.toString())) {
+            // the unit is not part of the number
+            return encode(((QuantityType<?>) command).toBigDecimal());
+        } else if (command instanceof DecimalType || command instanceof QuantityType<?>) {
+            try {
+                return encode(new BigDecimal(value.trim()));
+            } catch (NumberFormatException e) {
+                // e.g. the components of a HSBType or the output of a transformation
+            }
+        }
+        return encode(value);
+    }
+
+    private void write(@Nullable Object value) {
+        if (value == null) {
+            buffer.write(0xf6);
+        } else if (value instanceof Boolean) {
+            buffer.write((Boolean) value ? 0xf5 : 0xf4);
+        } else if (value instanceof Long || value instanceof Integer || value instanceof Short
+                || value instanceof Byte) {
+            writeInteger(((Number) value).longValue());
+        } else if (value instanceof BigInteger) {
+            BigInteger integer = (BigInteger) value;
+            if (integer.compareTo(LONG_MIN) >= 0 && integer.compareTo(LONG_MAX) <= 0) {
+                writeInteger(integer.longValue());
+            } else {
+                // tag 2/3 bignum
+                boolean negative = integer.signum() < 0;
+                writeHead(6, negative ? 3 : 2);
+                byte[] bytes = (negative ? integer.negate().subtract(BigInteger.ONE) : integer).toByteArray();
+                int offset = bytes[0] == 0 && bytes.length > 1 ? 1 : 0;
+                writeHead(2, bytes.length - offset);
+                buffer.write(bytes, offset, bytes.length - offset);
+            }
+        } else if (value instanceof BigDecimal) {
+            BigDecimal decimal = ((BigDecimal) value).stripTrailingZeros();
+            if (decimal.scale() <= 0 && decimal.precision() - decimal.scale() <= 18) {
+                writeInteger(decimal.longValueExact());
+            } else {
+                writeDouble(decimal.doubleValue());
+            }
+        } else if (value instanceof Float) {
+            writeHead(7, 26, Float.floatToIntBits((Float) value), 4);
+        } else if (value instanceof Number) {
+            writeDouble(((Number) value).doubleValue());
+        } else if (value instanceof byte[]) {
+            byte[] bytes = (byte[]) value;
+            writeHead(2, bytes.length);
+            buffer.write(bytes, 0, bytes.length);
+        } else if (value instanceof String) {
+            byte[] bytes = ((String) value).getBytes(StandardCharsets.UTF_8);
+            writeHead(3, bytes.length);
+            buffer.write(bytes, 0, bytes.length);
+        } else if (value instanceof List) {
+            List<?> list = (List<?>) value;
+            writeHead(4, list.size());
+            list.forEach(this::write);
+        } else if (value instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>) value;
+            writeHead(5, map.size());
+            map.forEach((k, v) -> {
+                write(k);
+                write(v);
+            });
+        } else {
+            throw new IllegalArgumentException("Type " + value.getClass().getSimpleName() + " not supported by CBOR");
+        }
+    }
+
+    private void writeInteger(long value) {
+        if (value >= 0) {
+            writeHead(0, value);
+        } else {
+            writeHead(1, -1 - value);
+        }
+    }
+
+    private void writeDouble(double value) {
+        float single = (float) value;
+        if (single == value) {
+            // no precision is lost, the shorter encoding is used
+            writeHead(7, 26, Float.floatToIntBits(single), 4);
+        } else {
+            writeHead(7, 27, Double.doubleToLongBits(value), 8);
+        }
+    }
+
+    private void writeHead(int major, long argument) {
+        if (argument < 24) {
+            buffer.write((major << 5) | (int) argument);
+        } else if (argument < 0x100) {
+            writeHead(major, 24, argument, 1);
+        } else if (argument < 0x10000) {
+            writeHead(major, 25, argument, 2);
+        } else if (argument < 0x100000000L) {
+            writeHead(major, 26, argument, 4);
+        } else {
+            writeHead(major, 27, argument, 8);
+        }
+    }
+
+    private void writeHead(int major, int info, long argument, int length) {
+        buffer.write((major << 5) | info);
+        for (int i = length - 1; i >= 0; i--) {
+            buffer.write((int) (argument >>> (8 * i)) & 0xff);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+/**
+ * Copyright (c) 2010-2022 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.coap.internal.coap;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.function.Supplier;
+
+import org.eclipse.californium.core.CoapClient;
+import org.eclipse.californium.core.CoapHandler;
+import org.eclipse.californium.core.CoapResponse;
+import org.eclipse.californium.core.coap.BlockOption;
+import org.eclipse.californium.core.coap.CoAP.ResponseCode;
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * The {@link Block1Transfer} sends a large request payload block by block (RFC 7959). The final response is passed
+ * to the given handler.
+ *
+ * @author Jan N. Klug - Initial contribution
+ */
+@NonNullByDefault
+public class Block1Transfer implements CoapHandler {
+    private final CoapClient coapClient;
+    private final CongestionController congestionController;
+    private final URI uri;
+    private final Supplier<Request> requestSupplier;
+    private final byte[] payload;
+    private final CoapHandler handler;
+
+    private int szx;
+    private int sent = 0;
+    private boolean restarted = false;
+
+    /**
+     * create a new block-wise upload
+     *
+     * @param coapClient the client used for sending the requests
+     * @param congestionController the congestion controller for the destination host
+     * @param uri the URI of the resource
+     * @param requestSupplier supplies a new request (without payload) for each block
+     * @param payload the complete payload
+     * @param blockSize the preferred block size in bytes (16-1024), the server may request a smaller one
+     * @param handler the handler for the final response
+     */
+    public Block1Transfer(CoapClient coapClient, CongestionController congestionController, URI uri,
+            Supplier<Request> requestSupplier, byte[] payload, int blockSize, CoapHandler handler) {
+        this.coapClient = coapClient;
+        this.congestionController = congestionController;
+        this.uri = uri;
+        this.requestSupplier = requestSupplier;
+        this.payload = payload;
+        this.szx = BlockOption.size2Szx(blockSize);
+        this.handler = handler;
+    }
+
+    /**
+     * start the transfer by sending the first block
+     */
+    public void start() {
+        sendBlock(0);
+    }
+
+    private void sendBlock(int num) {
+        int size = BlockOption.szx2Size(szx);
+        int offset = num * size;
+        int end = Math.min(offset + size, payload.length);
+        boolean more = end < payload.length;
+
+        Request request = requestSupplier.get();
+        request.setPayload(Arrays.copyOfRange(payload, offset, end));
+        request.getOptions().setBlock1(szx, more, num);
+        if (num == 0) {
+            request.getOptions().setSize1(payload.length);
+        }
+        sent = end;
+        congestionController.send(uri.getHost(), coapClient, request, this, RequestPriority.COMMAND);
+    }
+
+    @Override
+    public void onLoad(@Nullable CoapResponse response) {
+        if (response == null) {
+            onError();
+            return;
+        }
+        BlockOption block1 = response.getOptions().getBlock1();
+        if (response.getCode() == ResponseCode.CONTINUE && block1 != null) {
+            // the server may ask for smaller blocks, the sent data is always a multiple of the new size
+            szx = Math.min(szx, block1.getSzx());
+            sendBlock(sent / BlockOption.szx2Size(szx));
+        } else if (response.getCode() == ResponseCode.REQUEST_ENTITY_TOO_LARGE && block1 != null
+                && block1.getSzx() < szx && !restarted) {
+            // the server announced the block size it can handle, start over with that
+            restarted = true;
+            szx = block1.getSzx();
+            sendBlock(0);
+        } else {
+            handler.onLoad(response);
+        }
+    }
+
+    @Override
+    public void onError() {
+        handler.onError();
+    }
+}
@@ -0,0 +1,272 @@
+/**
+ * Copyright (c) 2010-2022 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.coap.internal.coap;
+
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.eclipse.californium.core.CoapClient;
+import org.eclipse.californium.core.CoapHandler;
+import org.eclipse.californium.core.CoapResponse;
+import org.eclipse.californium.core.coap.BlockOption;
+import org.eclipse.californium.core.coap.MediaTypeRegistry;
+import org.eclipse.californium.core.coap.OptionSet;
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The {@link Block2Transfer} retrieves a resource block by block (RFC 7959) and assembles the blocks in a pooled
+ * buffer. The transfer is aborted as soon as the announced (Size2) or received size exceeds the buffer size.
+ *
+ * The pool only retains buffers of up to {@link #MAX_RETAINED_SIZE} bytes. A larger representation (the buffer size
+ * of a thing may be several MB) grows a buffer that is dropped after the transfer, and the assembled content is
+ * copied once more into an array of its exact size. The memory bound of the pool therefore only holds for payloads
+ * up to this size, a larger transfer temporarily needs up to twice its size.
+ *
+ * @author Jan N. Klug - Initial contribution
+ */
+@NonNullByDefault
+public class Block2Transfer implements CoapHandler {
+    private static final int MAX_POOLED = 16;
+    private static final int MAX_RETAINED_SIZE = 256 * 1024;
+    private static final BlockBufferPool BUFFER_POOL = new BlockBufferPool(MAX_POOLED, MAX_RETAINED_SIZE);
+
+    private final Logger logger = LoggerFactory.getLogger(Block2Transfer.class);
+    private final CoapClient coapClient;
+    private final CongestionController congestionController;
+    private final TimingWheel timer;
+    private final int timeout;
+    private final RequestPriority priority;
+    private final Supplier<Request> requestSupplier;
+    private final URI uri;
+    private final CompletableFuture<@Nullable Content> future;
+    private final CoAPResponseListener responseListener;
+    private final String fallbackEncoding;
+    private final int maxSize;
+    private final int szx;
+
+    private @Nullable BlockBufferPool.Buffer buffer;
+    private byte @Nullable [] etag;
+    private @Nullable Request currentRequest;
+    private TimingWheel.@Nullable Timeout blockTimeout;
+    private volatile boolean cancelled = false;
+
+    /**
+     * create a new block-wise transfer
+     *
+     * @param coapClient the client used for sending the requests
+     * @param congestionController the congestion controller for the destination host
+     * @param timer the timer for the timeout of the block exchanges
+     * @param timeout the timeout of each block exchange in ms
+     * @param requestSupplier supplies a new request for each block
+     * @param uri the URI of the resource (used for logging)
+     * @param future Content future to complete with the result of the transfer
+     * @param fallbackEncoding a fallback encoding for the content (UTF-8 if null)
+     * @param bufferSize the maximum size of the content in kB
+     * @param blockSize the preferred block size in bytes (16-1024), the server may choose a smaller one
+     * @param priority the priority class of the requests
+     */
+    public Block2Transfer(CoapClient coapClient, CongestionController congestionController, TimingWheel timer,
+            int timeout, Supplier<Request> requestSupplier, URI uri, CompletableFuture<@Nullable Content> future,
+            @Nullable String fallbackEncoding, int bufferSize, int blockSize, RequestPriority priority) {
+        this.coapClient = coapClient;
+        this.congestionController = congestionController;
+        this.timer = timer;
+        this.timeout = timeout;
+        this.priority = priority;
+        this.requestSupplier = requestSupplier;
+        this.uri = uri;
+        this.future = future;
+        this.responseListener = new CoAPResponseListener(uri, future, fallbackEncoding, bufferSize);
+        this.fallbackEncoding = fallbackEncoding != null ? fallbackEncoding : StandardCharsets.UTF_8.name();
+        this.maxSize = bufferSize * 1024;
+        this.szx = BlockOption.size2Szx(blockSize);
+    }
+
+    /**
+     * start the transfer by requesting the first block
+     */
+    public void start() {
+        requestBlock(0, szx);
+    }
+
+    /**
+     * cancel the transfer, the future is completed with null
+     */
+    public void cancel() {
+        synchronized (this) {
+            cancelled = true;
+            cancelBlockTimeout();
+            Request currentRequest = this.currentRequest;
+            if (currentRequest != null) {
+                currentRequest.cancel();
+            }
+        }
+        // a cancelled request is not answered, the waiting fetches must not wait forever
+        finish(null);
+    }
+
+    private synchronized void cancelBlockTimeout() {
+        TimingWheel.Timeout blockTimeout = this.blockTimeout;
+        if (blockTimeout != null) {
+            blockTimeout.cancel();
+            this.blockTimeout = null;
+        }
+    }
+
+    private synchronized void requestBlock(int num, int szx) {
+        if (cancelled) {
+            finish(null);
+            return;
+        }
+        Request request = requestSupplier.get();
+        request.getOptions().setBlock2(szx, false, num);
+        if (num == 0) {
+            // ask the server to announce the total size
+            request.getOptions().setSize2(0);
+        } else {
+            // validation only applies to the first block, the following blocks must match its ETag
+            request.getOptions().clearETags();
+        }
+        currentRequest = request;
+        // the timeout applies to each block, a large resource may need longer in total
+        cancelBlockTimeout();
+        blockTimeout = timer.schedule(() -> {
+            if (isCurrent(request) && !future.isDone()) {
+                logger.debug("Block {} of '{}' timed out after {}ms", num, uri, timeout);
+                cancel();
+            }
+        }, timeout, TimeUnit.MILLISECONDS);
+        congestionController.send(uri.getHost(), coapClient, request, this, priority);
+    }
+
+    @Override
+    public void onLoad(@Nullable CoapResponse response) {
+        if (response == null) {
+            onError();
+            return;
+        }
+        cancelBlockTimeout();
+        // the completion runs outside the lock, the dependent stages of the future must not block a timeout
+        Runnable completion = processBlock(response);
+        completion.run();
+    }
+
+    /**
+     * process a block while holding the lock that protects the buffer, a concurrent {@link #cancel()} can not return
+     * the buffer to the pool while a block is appended or the content is copied
+     *
+     * @param response the response containing the block
+     * @return the action that completes the transfer (does nothing if the next block was requested)
+     */
+    private synchronized Runnable processBlock(CoapResponse response) {
+        if (cancelled) {
+            // the buffer was already released and the future completed by cancel()
+            return () -> {
+            };
+        }
+        OptionSet options = response.getOptions();
+        BlockOption block2 = options.getBlock2();
+        if (!response.isSuccess() || block2 == null) {
+            // error or the representation fits into a single message (or was already assembled by the stack)
+            releaseBuffer();
+            return () -> responseListener.onLoad(response);
+        }
+
+        if (block2.getNum() == 0) {
+            Integer size2 = options.getSize2();
+            if (size2 != null && size2 > maxSize) {
+                return abort("announced size of " + size2 + " bytes exceeds buffer size of " + maxSize + " bytes");
+            }
+            List<byte[]> etags = options.getETags();
+            etag = etags.isEmpty() ? null : etags.get(0);
+        } else if (!sameEtag(options.getETags())) {
+            return abort("representation changed during transfer");
+        }
+
+        BlockBufferPool.Buffer buffer = this.buffer;
+        if (buffer == null) {
+            buffer = BUFFER_POOL.acquire();
+            this.buffer = buffer;
+        }
+        byte[] payload = response.getPayload();
+        if (block2.getOffset() != buffer.size()) {
+            return abort("unexpected block offset " + block2.getOffset());
+        } else if (buffer.size() + payload.length > maxSize) {
+            return abort("response exceeds buffer size of " + maxSize + " bytes");
+        }
+        buffer.append(payload);
+
+        if (block2.isM()) {
+            // continue with the block size chosen by the server
+            int nextSzx = block2.getSzx();
+            requestBlock(buffer.size() / BlockOption.szx2Size(nextSzx), nextSzx);
+            return () -> {
+            };
+        }
+        String mediaType = options.hasContentFormat() ? MediaTypeRegistry.toString(options.getContentFormat()) : null;
+        Content content = new Content(buffer.toByteArray(), fallbackEncoding, mediaType, etag,
+                options.hasMaxAge() ? options.getMaxAge() : -1, false);
+        releaseBuffer();
+        return () -> future.complete(content);
+    }
+
+    private synchronized boolean isCurrent(Request request) {
+        return currentRequest == request;
+    }
+
+    @Override
+    public void onError() {
+        cancelBlockTimeout();
+        releaseBuffer();
+        responseListener.onError();
+    }
+
+    private boolean sameEtag(List<byte[]> etags) {
+        byte[] etag = this.etag;
+        if (etag == null) {
+            return etags.isEmpty();
+        }
+        return etags.size() == 1 && Arrays.equals(etag, etags.get(0));
+    }
+
+    private Runnable abort(String reason) {
+        logger.warn("Requesting '{}' failed: {}", uri, reason);
+        releaseBuffer();
+        return () -> future.complete(null);
+    }
+
+    private void finish(@Nullable Content content) {
+        releaseBuffer();
+        future.complete(content);
+    }
+
+    /**
+     * return the buffer to the pool, calling this more than once is harmless
+     */
+    private synchronized void releaseBuffer() {
+        BlockBufferPool.Buffer buffer = this.buffer;
+        if (buffer != null) {
+            buffer.release();
+            this.buffer = null;
+        }
+    }
+}
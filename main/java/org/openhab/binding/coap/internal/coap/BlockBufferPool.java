@@ -0,0 +1,132 @@
+/**
+ * Copyright (c) 2010-2022 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.coap.internal.coap;
+
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+
+/**
+ * The {@link BlockBufferPool} keeps a bounded number of byte arrays that are re-used for assembling block-wise
+ * transfers
+ *
+ * @author Jan N. Klug - Initial contribution
+ */
+@NonNullByDefault
+public class BlockBufferPool {
+    private static final int INITIAL_SIZE = 4096;
+
+    private final int maxPooled;
+    private final int maxRetainedSize;
+    private final Queue<byte[]> pool = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pooled = new AtomicInteger();
+
+    /**
+     * create a new pool
+     *
+     * @param maxPooled the maximum number of arrays kept in the pool
+     * @param maxRetainedSize arrays larger than this (in bytes) are not returned to the pool
+     */
+    public BlockBufferPool(int maxPooled, int maxRetainedSize) {
+        this.maxPooled = maxPooled;
+        this.maxRetainedSize = maxRetainedSize;
+    }
+
+    /**
+     * get a buffer from the pool (or a new one if the pool is empty)
+     *
+     * @return an empty buffer
+     */
+    public Buffer acquire() {
+        byte[] array = pool.poll();
+        if (array != null) {
+            pooled.decrementAndGet();
+            return new Buffer(array);
+        }
+        return new Buffer(new byte[INITIAL_SIZE]);
+    }
+
+    private void release(byte[] array) {
+        if (array.length > maxRetainedSize) {
+            return;
+        }
+        if (pooled.incrementAndGet() <= maxPooled) {
+            pool.offer(array);
+        } else {
+            // the pool is full, undo the reservation
+            pooled.decrementAndGet();
+        }
+    }
+
+    /**
+     * get the number of arrays in the pool
+     *
+     * @return the number of arrays
+     */
+    int getPooled() {
+        return pooled.get();
+    }
+
+    /**
+     * A growable buffer backed by a pooled array. It must be released after use and must not be used afterwards.
+     */
+    public class Buffer {
+        private byte[] array;
+        private int size = 0;
+        private boolean released = false;
+
+        private Buffer(byte[] array) {
+            this.array = array;
+        }
+
+        /**
+         * append data to the buffer
+         *
+         * @param data the data
+         */
+        public void append(byte[] data) {
+            if (size + data.length > array.length) {
+                array = Arrays.copyOf(array, Math.max(array.length * 2, size + data.length));
+            }
+            System.arraycopy(data, 0, array, size, data.length);
+            size += data.length;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        /**
+         * get a copy of the buffer content with the exact size
+         *
+         * @return the content
+         */
+        public byte[] toByteArray() {
+            return Arrays.copyOf(array, size);
+        }
+
+        /**
+         * return the backing array to the pool
+         */
+        public void release() {
+            if (!released) {
+                released = true;
+                size = 0;
+                BlockBufferPool.this.release(array);
+            }
+        }
+    }
+}
@@ -12,16 +12,18 @@
  */
 package org.openhab.binding.coap.internal.coap;
 
+import java.net.URI;
 import java.nio.charset.StandardCharsets;
-import java.util.Objects;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
 
+import org.eclipse.californium.core.CoapHandler;
 import org.eclipse.californium.core.CoapResponse;
-import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.core.coap.CoAP.ResponseCode;
+import org.eclipse.californium.core.coap.MediaTypeRegistry;
+import org.eclipse.californium.core.coap.OptionSet;
 import org.eclipse.jdt.annotation.NonNullByDefault;
 import org.eclipse.jdt.annotation.Nullable;
-import org.eclipse.jetty.client.api.Result;
-import org.eclipse.jetty.client.util.BufferingResponseListener;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -31,48 +33,80 @@ import org.slf4j.LoggerFactory;
  * @author Jan N. Klug - Initial contribution
  */
 @NonNullByDefault
-public class CoAPResponseListener extends BufferingResponseListener {
+public class CoAPResponseListener implements CoapHandler {
     private final Logger logger = LoggerFactory.getLogger(CoAPResponseListener.class);
+    private final URI uri;
     private final CompletableFuture<@Nullable Content> future;
     private final String fallbackEncoding;
+    private final int bufferSize;
 
     /**
      * the CoAPResponseListener is responsible
      *
+     * @param uri the URI of the request (used for logging)
      * @param future Content future to complete with the result of the request
      * @param fallbackEncoding a fallback encoding for the content (UTF-8 if null)
      * @param bufferSize the buffer size for the content in kB (default 255 kB)
      */
-    public CoAPResponseListener(CompletableFuture<@Nullable Content> future, @Nullable String fallbackEncoding,
-            int bufferSize) {
-        super(bufferSize * 1024);
+    public CoAPResponseListener(URI uri, CompletableFuture<@Nullable Content> future,
+            @Nullable String fallbackEncoding, int bufferSize) {
+        this.uri = uri;
         this.future = future;
         this.fallbackEncoding = fallbackEncoding != null ? fallbackEncoding : StandardCharsets.UTF_8.name();
+        this.bufferSize = bufferSize * 1024;
     }
 
     @Override
-    public void onComplete(@NonNullByDefault({}) Result result) {
-        CoapResponse response = (CoapResponse) result.getResponse();
+    public void onLoad(@Nullable CoapResponse response) {
+        if (response == null) {
+            onError();
+            return;
+        }
         if (logger.isTraceEnabled()) {
-            logger.trace("Received from '{}': {}", result.getRequest().getURI(), responseToLogString(response));
+            logger.trace("Received from '{}': {}", uri, responseToLogString(response));
         }
-        Request request = (Request) result.getRequest();
-        if (result.isFailed()) {
-            logger.warn("Requesting '{}' failed: {}", request.getURI(), result.getFailure().toString());
-            future.complete(null);
-        } else if (response.isSuccess()) {
-            String encoding = Objects.requireNonNullElse(getEncoding(), fallbackEncoding);
-            future.complete(new Content(getContent(), encoding, getMediaType()));
+        ResponseCode code = response.getCode();
+        if (response.isSuccess()) {
+            if (response.getPayload().length > bufferSize) {
+                logger.warn("Requesting '{}' failed: response exceeds buffer size of {} bytes", uri, bufferSize);
+                future.complete(null);
+            } else {
+                future.complete(toContent(response, fallbackEncoding));
+            }
+        } else if (code == ResponseCode.UNAUTHORIZED || code == ResponseCode.FORBIDDEN) {
+            future.completeExceptionally(new CoapAuthException("Response code " + code));
         } else {
-            logger.warn("Requesting '{}' Response code {}", request.getURI(), response.getCode());
+            logger.warn("Requesting '{}' Response code {}", uri, code);
             future.completeExceptionally(
-                    new IllegalStateException("Response is not successful. Response code " + response.getCode()));
+                    new IllegalStateException("Response is not successful. Response code " + code));
         }
     }
 
+    @Override
+    public void onError() {
+        logger.warn("Requesting '{}' failed: request timed out or was rejected", uri);
+        future.complete(null);
+    }
+
+    /**
+     * create a {@link Content} from a CoAP response
+     *
+     * @param response the response
+     * @param fallbackEncoding the encoding to use for text content
+     * @return the content
+     */
+    public static Content toContent(CoapResponse response, String fallbackEncoding) {
+        OptionSet options = response.getOptions();
+        String mediaType = options.hasContentFormat() ? MediaTypeRegistry.toString(options.getContentFormat())
+                : null;
+        List<byte[]> etags = options.getETags();
+        return new Content(response.getPayload(), fallbackEncoding, mediaType, etags.isEmpty() ? null : etags.get(0),
+                options.hasMaxAge() ? options.getMaxAge() : -1, response.getCode() == ResponseCode.VALID);
+    }
+
     private String responseToLogString(CoapResponse response) {
-        String logString = "Code = {" + response.getCode() + "}, Payload = {" + response.getPayload() + "}, Content = {"
-                + response.getResponseText() + "}";
+        String logString = "Code = {" + response.getCode() + "}, Options = {" + response.getOptions()
+                + "}, Content = {" + response.getResponseText() + "}";
         return logString;
     }
 }
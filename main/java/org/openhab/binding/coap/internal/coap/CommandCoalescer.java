@@ -0,0 +1,116 @@
+/**
+ * Copyright (c) 2010-2022 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.coap.internal.coap;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.openhab.core.library.types.IncreaseDecreaseType;
+import org.openhab.core.library.types.UpDownType;
+import org.openhab.core.types.Command;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The {@link CommandCoalescer} makes sure only one command per channel is in flight. Absolute commands arriving while
+ * an exchange is outstanding replace the waiting ones, only the latest one is sent when the exchange completes.
+ * Relative commands (INCREASE/DECREASE, UP/DOWN) are queued, each of them changes the state.
+ *
+ * @author Jan N. Klug - Initial contribution
+ */
+@NonNullByDefault
+public class CommandCoalescer {
+    private final Logger logger = LoggerFactory.getLogger(CommandCoalescer.class);
+
+    private final Function<Command, CompletableFuture<?>> sender;
+    private final Deque<Command> pending = new ArrayDeque<>();
+    private boolean inFlight = false;
+    private boolean stopped = false;
+
+    /**
+     * create a new coalescer
+     *
+     * @param sender sends a command, the returned future completes when the exchange is finished
+     */
+    public CommandCoalescer(Function<Command, CompletableFuture<?>> sender) {
+        this.sender = sender;
+    }
+
+    /**
+     * send a command or queue it
+     *
+     * @param command the command
+     * @throws IllegalArgumentException if the command is sent immediately and cannot be converted
+     * @throws IllegalStateException if the command is sent immediately and the channel is read-only
+     */
+    public void send(Command command) {
+        synchronized (this) {
+            if (stopped) {
+                return;
+            }
+            if (inFlight) {
+                if (!isRelative(command)) {
+                    // the new value supersedes all waiting ones
+                    if (!pending.isEmpty()) {
+                        logger.trace("Replacing pending commands {} with '{}'", pending, command);
+                    }
+                    pending.clear();
+                }
+                pending.add(command);
+                return;
+            }
+            inFlight = true;
+        }
+        dispatch(command);
+    }
+
+    /**
+     * drop the pending commands and stop sending
+     */
+    public synchronized void stop() {
+        stopped = true;
+        pending.clear();
+    }
+
+    private static boolean isRelative(Command command) {
+        return command instanceof IncreaseDecreaseType || command instanceof UpDownType;
+    }
+
+    private void dispatch(Command command) {
+        try {
+            sender.apply(command).whenComplete((r, e) -> sendPending());
+        } catch (RuntimeException e) {
+            sendPending();
+            throw e;
+        }
+    }
+
+    private void sendPending() {
+        Command next;
+        synchronized (this) {
+            next = pending.poll();
+            if (next == null || stopped) {
+                inFlight = false;
+                return;
+            }
+        }
+        try {
+            dispatch(next);
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            logger.warn("Failed to send pending command '{}': {}", next, e.getMessage());
+        }
+    }
+}
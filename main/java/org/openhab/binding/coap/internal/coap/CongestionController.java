@@ -0,0 +1,345 @@
+/**
+ * Copyright (c) 2010-2022 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.coap.internal.coap;
+
+import java.util.Comparator;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.eclipse.californium.core.CoapClient;
+import org.eclipse.californium.core.CoapHandler;
+import org.eclipse.californium.core.coap.MessageObserverAdapter;
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.core.coap.Response;
+import org.eclipse.californium.core.network.stack.ReliabilityLayerParameters;
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The {@link CongestionController} implements CoCoA congestion control (draft-ietf-core-cocoa) per destination host.
+ *
+ * For each host a strong (no retransmission) and a weak (one or two retransmissions) RTO estimate is kept, the
+ * resulting RTO and variable backoff factor are applied to every request sent to this host. The number of outstanding
+ * requests per host is limited to NSTART, further requests are queued by priority until an exchange completes. A
+ * queued request is sent from the executor, not from the thread that completed the previous exchange.
+ *
+ * @author Jan N. Klug - Initial contribution
+ */
+@NonNullByDefault
+public class CongestionController {
+    private static final double INITIAL_RTO = 2000; // in ms
+    private static final double ALPHA = 0.125;
+    private static final double BETA = 0.25;
+    private static final int K_STRONG = 4;
+    private static final int K_WEAK = 1;
+    private static final int MAX_RETRANSMIT = 4;
+    private static final double ACK_RANDOM_FACTOR = 1.5;
+
+    private final Logger logger = LoggerFactory.getLogger(CongestionController.class);
+    private final Map<String, HostState> hosts = new ConcurrentHashMap<>();
+    private final int nstart;
+    private final Executor executor;
+
+    /**
+     * create a new controller
+     *
+     * @param nstart maximum number of outstanding requests per host
+     * @param executor the executor that sends queued requests when a slot becomes free
+     */
+    public CongestionController(int nstart, Executor executor) {
+        this.nstart = Math.max(1, nstart);
+        this.executor = executor;
+    }
+
+    /**
+     * send a request respecting NSTART and with the estimated RTO of the destination host
+     *
+     * @param host the destination host
+     * @param coapClient the client used for sending
+     * @param request the request
+     * @param handler the handler for the response
+     * @param priority the priority class of the request
+     */
+    public void send(String host, CoapClient coapClient, Request request, CoapHandler handler,
+            RequestPriority priority) {
+        HostState hostState = hosts.computeIfAbsent(host, HostState::new);
+        hostState.acquire(priority, () -> {
+            if (request.isCanceled()) {
+                // cancelled while waiting for a free slot
+                hostState.release();
+                handler.onError();
+                return;
+            }
+            request.setReliabilityLayerParameters(hostState.getReliabilityLayerParameters());
+            ExchangeObserver exchangeObserver = new ExchangeObserver(hostState);
+            request.addMessageObserver(exchangeObserver);
+            try {
+                coapClient.advanced(handler, request);
+            } catch (RuntimeException e) {
+                // the exchange never started, no observer callback will release the slot
+                logger.debug("Sending request to host '{}' failed: {}", host, e.getMessage());
+                exchangeObserver.complete();
+                handler.onError();
+            }
+        });
+    }
+
+    /**
+     * get the current estimate for a host
+     *
+     * @param host the destination host
+     * @return the estimate or null if no request was sent to this host yet
+     */
+    public @Nullable Estimate getEstimate(String host) {
+        HostState hostState = hosts.get(host);
+        return hostState != null ? hostState.getEstimate() : null;
+    }
+
+    /**
+     * get the current estimates of all hosts
+     *
+     * @return a map of host to estimate
+     */
+    public Map<String, Estimate> getEstimates() {
+        Map<String, Estimate> estimates = new ConcurrentHashMap<>();
+        hosts.forEach((host, hostState) -> estimates.put(host, hostState.getEstimate()));
+        return estimates;
+    }
+
+    /**
+     * A snapshot of the estimated values for a host
+     */
+    public static class Estimate {
+        public final double rto;
+        public final double strongRto;
+        public final double weakRto;
+        public final double backoffFactor;
+        public final int outstanding;
+        public final int queued;
+
+        private Estimate(double rto, double strongRto, double weakRto, double backoffFactor, int outstanding,
+                int queued) {
+            this.rto = rto;
+            this.strongRto = strongRto;
+            this.weakRto = weakRto;
+            this.backoffFactor = backoffFactor;
+            this.outstanding = outstanding;
+            this.queued = queued;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("RTO=%.0fms (strong=%.0fms, weak=%.0fms), VBF=%.1f, outstanding=%d, queued=%d", rto,
+                    strongRto, weakRto, backoffFactor, outstanding, queued);
+        }
+    }
+
+    private static class RttEstimator {
+        private final int k;
+        private double srtt = 0;
+        private double rttvar = 0;
+        private double rto = INITIAL_RTO;
+        private boolean initialized = false;
+
+        public RttEstimator(int k) {
+            this.k = k;
+        }
+
+        /**
+         * update the estimator (RFC 6298 with the CoCoA K value)
+         *
+         * @param rtt the measured round-trip time in ms
+         * @return the new RTO
+         */
+        public double update(double rtt) {
+            if (!initialized) {
+                srtt = rtt;
+                rttvar = rtt / 2;
+                initialized = true;
+            } else {
+                rttvar = (1 - BETA) * rttvar + BETA * Math.abs(srtt - rtt);
+                srtt = (1 - ALPHA) * srtt + ALPHA * rtt;
+            }
+            rto = srtt + k * rttvar;
+            return rto;
+        }
+    }
+
+    private class HostState {
+        private final String host;
+        private final RttEstimator strong = new RttEstimator(K_STRONG);
+        private final RttEstimator weak = new RttEstimator(K_WEAK);
+        private final Queue<Waiting> waiting = new PriorityQueue<>(
+                Comparator.comparing((Waiting w) -> w.priority).thenComparingLong(w -> w.sequence));
+        private long sequence = 0;
+        private double rto = INITIAL_RTO;
+        private long lastUpdate = System.nanoTime();
+        private int outstanding = 0;
+
+        public HostState(String host) {
+            this.host = host;
+        }
+
+        public void acquire(RequestPriority priority, Runnable sender) {
+            synchronized (this) {
+                if (outstanding >= nstart) {
+                    waiting.add(new Waiting(priority, sequence++, sender));
+                    return;
+                }
+                outstanding++;
+            }
+            sender.run();
+        }
+
+        public void release() {
+            Waiting next;
+            synchronized (this) {
+                next = waiting.poll();
+                if (next == null) {
+                    outstanding--;
+                    return;
+                }
+            }
+            // the slot is handed over to the next waiting request, sending it on this thread would nest the
+            // exchanges that complete synchronously
+            try {
+                executor.execute(next.sender);
+            } catch (RejectedExecutionException e) {
+                logger.debug("Dropping queued request to host '{}', the binding is shutting down", host);
+            }
+        }
+
+        public synchronized void update(double rtt, int retransmissions) {
+            if (retransmissions == 0) {
+                rto = 0.5 * strong.update(rtt) + 0.5 * rto;
+            } else if (retransmissions <= 2) {
+                rto = 0.25 * weak.update(rtt) + 0.75 * rto;
+            } else {
+                // measurements with more retransmissions are too ambiguous
+                return;
+            }
+            lastUpdate = System.nanoTime();
+            logger.trace("Updated RTO for host '{}' to {}ms (rtt={}ms, retransmissions={})", host, rto, rtt,
+                    retransmissions);
+        }
+
+        public synchronized ReliabilityLayerParameters getReliabilityLayerParameters() {
+            age();
+            return ReliabilityLayerParameters.builder().ackTimeout((int) rto).ackRandomFactor(ACK_RANDOM_FACTOR)
+                    .ackTimeoutScale((float) backoffFactor()).maxRetransmit(MAX_RETRANSMIT).nstart(nstart).build();
+        }
+
+        public synchronized Estimate getEstimate() {
+            return new Estimate(rto, strong.rto, weak.rto, backoffFactor(), outstanding, waiting.size());
+        }
+
+        private double backoffFactor() {
+            if (rto < 1000) {
+                return 3;
+            } else if (rto > 3000) {
+                return 1.5;
+            }
+            return 2;
+        }
+
+        private void age() {
+            // RTO aging: unused small values are doubled, unused large values are moved towards 1s
+            double idle = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lastUpdate);
+            if (rto < 1000 && idle > 16 * rto) {
+                rto = 2 * rto;
+                lastUpdate = System.nanoTime();
+            } else if (rto > 3000 && idle > 4 * rto) {
+                rto = 1000 + 0.5 * rto;
+                lastUpdate = System.nanoTime();
+            }
+        }
+    }
+
+    private static class Waiting {
+        private final RequestPriority priority;
+        private final long sequence;
+        private final Runnable sender;
+
+        public Waiting(RequestPriority priority, long sequence, Runnable sender) {
+            this.priority = priority;
+            this.sequence = sequence;
+            this.sender = sender;
+        }
+    }
+
+    private static class ExchangeObserver extends MessageObserverAdapter {
+        private final HostState hostState;
+        private final AtomicBoolean completed = new AtomicBoolean(false);
+        private long firstTransmission = 0;
+        private int retransmissions = 0;
+
+        public ExchangeObserver(HostState hostState) {
+            this.hostState = hostState;
+        }
+
+        @Override
+        public void onSent(boolean retransmission) {
+            if (!retransmission && firstTransmission == 0) {
+                firstTransmission = System.nanoTime();
+            }
+        }
+
+        @Override
+        public void onRetransmission() {
+            retransmissions++;
+        }
+
+        @Override
+        public void onResponse(@Nullable Response response) {
+            if (firstTransmission != 0 && !completed.get()) {
+                hostState.update(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - firstTransmission) / 1000.0,
+                        retransmissions);
+            }
+            complete();
+        }
+
+        @Override
+        public void onReject() {
+            complete();
+        }
+
+        @Override
+        public void onTimeout() {
+            complete();
+        }
+
+        @Override
+        public void onCancel() {
+            complete();
+        }
+
+        @Override
+        public void onSendError(@Nullable Throwable error) {
+            complete();
+        }
+
+        private void complete() {
+            if (completed.compareAndSet(false, true)) {
+                hostState.release();
+            }
+        }
+    }
+}
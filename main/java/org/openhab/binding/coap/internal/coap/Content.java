@@ -12,44 +12,210 @@
  */
 package org.openhab.binding.coap.internal.coap;
 
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.eclipse.jdt.annotation.NonNullByDefault;
 import org.eclipse.jdt.annotation.Nullable;
+import org.openhab.binding.coap.internal.cbor.CborReader;
+import org.openhab.binding.coap.internal.senml.SenMLPack;
+import org.openhab.binding.coap.internal.senml.SenMLRecord;
+import org.openhab.binding.coap.internal.transform.JsonPathExtractor;
+import org.openhab.binding.coap.internal.transform.TransformationMemo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
- * The {@link Content} defines the pre-processed response
+ * The {@link Content} defines the pre-processed response. It is immutable and shared by all consumers of a URL, the
+ * payload is decoded once when it is first requested as string.
  *
  * @author Jan N. Klug - Initial contribution
  */
 @NonNullByDefault
 public class Content {
+    private static final Logger LOGGER = LoggerFactory.getLogger(Content.class);
+    // charset lookups by name are slow, the few encodings in use are cached
+    private static final Map<String, Charset> CHARSETS = new ConcurrentHashMap<>();
+
     private final byte[] rawContent;
     private final Charset encoding;
     private final @Nullable String mediaType;
+    private final byte @Nullable [] etag;
+    private final long maxAge;
+    private final boolean unchanged;
+    private volatile @Nullable String decoded;
+    private final TransformationMemo transformationMemo = new TransformationMemo();
+    private final Map<String, Optional<Object>> cborValues = new ConcurrentHashMap<>();
+    private volatile @Nullable Map<String, SenMLRecord> senMLRecords;
 
     public Content(byte[] rawContent, String encoding, @Nullable String mediaType) {
+        this(rawContent, encoding, mediaType, null, -1, false);
+    }
+
+    /**
+     * create a content with validation information
+     *
+     * @param rawContent the payload
+     * @param encoding the encoding for text content
+     * @param mediaType the media type (or null if unknown)
+     * @param etag the entity tag of the representation (or null if none)
+     * @param maxAge the freshness lifetime in s (-1 if the response had no Max-Age option)
+     * @param unchanged true if the response was 2.03 Valid, the payload is empty in this case
+     */
+    public Content(byte[] rawContent, String encoding, @Nullable String mediaType, byte @Nullable [] etag, long maxAge,
+            boolean unchanged) {
         this.rawContent = rawContent;
         this.mediaType = mediaType;
+        this.etag = etag;
+        this.maxAge = maxAge;
+        this.unchanged = unchanged;
+        this.encoding = CHARSETS.computeIfAbsent(encoding, Content::lookupCharset);
+    }
 
-        Charset finalEncoding = StandardCharsets.UTF_8;
+    private static Charset lookupCharset(String name) {
         try {
-            finalEncoding = Charset.forName(encoding);
+            return Charset.forName(name);
         } catch (IllegalArgumentException e) {
+            return StandardCharsets.UTF_8;
         }
-        this.encoding = finalEncoding;
     }
 
+    /**
+     * get the payload
+     *
+     * the array is shared and must not be modified
+     *
+     * @return the payload
+     */
     public byte[] getRawContent() {
         return rawContent;
     }
 
+    /**
+     * get the payload without copying it
+     *
+     * @return a read-only view of the payload
+     */
+    public ByteBuffer getByteBuffer() {
+        return ByteBuffer.wrap(rawContent).asReadOnlyBuffer();
+    }
+
+    /**
+     * get a reader decoding the payload while reading, without building the string
+     *
+     * @return a new reader
+     */
+    public Reader getReader() {
+        return new InputStreamReader(new ByteArrayInputStream(rawContent), encoding);
+    }
+
     public String getAsString() {
-        return new String(rawContent, encoding);
+        String decoded = this.decoded;
+        if (decoded == null) {
+            // concurrent first calls may both decode, the results are equal
+            decoded = new String(rawContent, encoding);
+            this.decoded = decoded;
+        }
+        return decoded;
+    }
+
+    /**
+     * get the results of the state transformations applied to this payload
+     *
+     * @return the memo shared by all consumers
+     */
+    public TransformationMemo getTransformationMemo() {
+        return transformationMemo;
+    }
+
+    public boolean isCbor() {
+        return CborReader.MEDIA_TYPE.equals(mediaType);
+    }
+
+    /**
+     * get a value of a CBOR payload
+     *
+     * only the items on the path are decoded, the other ones are skipped. The result is kept for other consumers
+     * selecting the same path.
+     *
+     * @param path the path of the value (like $.a[0], empty for the whole payload)
+     * @return the value, empty if it is not found or null
+     * @throws IllegalArgumentException if the path is not supported or the payload is not valid CBOR
+     */
+    public Optional<Object> getCborValue(String path) {
+        return cborValues.computeIfAbsent(path, p -> {
+            List<Object> segments = p.isEmpty() ? List.of() : JsonPathExtractor.parsePath(p);
+            if (segments == null) {
+                throw new IllegalArgumentException("Unsupported path '" + p + "'");
+            }
+            CborReader reader = new CborReader(rawContent);
+            return reader.select(segments) ? Optional.ofNullable(reader.read()) : Optional.empty();
+        });
+    }
+
+    /**
+     * get the records of a SenML pack (JSON or CBOR)
+     *
+     * the pack is decoded once for all consumers, an invalid pack is reported once and results in no records
+     *
+     * @return the records by resolved name
+     */
+    public Map<String, SenMLRecord> getSenMLRecords() {
+        Map<String, SenMLRecord> records = senMLRecords;
+        if (records == null) {
+            synchronized (this) {
+                records = senMLRecords;
+                if (records == null) {
+                    try {
+                        records = SenMLPack.MEDIA_TYPE_CBOR.equals(mediaType) || isCbor()
+                                ? SenMLPack.decodeCbor(rawContent)
+                                : SenMLPack.decodeJson(getReader());
+                    } catch (IllegalArgumentException e) {
+                        LOGGER.debug("Decoding SenML pack failed: {}", e.getMessage());
+                        records = Map.of();
+                    }
+                    senMLRecords = records;
+                }
+            }
+        }
+        return records;
     }
 
     public @Nullable String getMediaType() {
         return mediaType;
     }
+
+    public byte @Nullable [] getETag() {
+        return etag;
+    }
+
+    public long getMaxAge() {
+        return maxAge;
+    }
+
+    public boolean isUnchanged() {
+        return unchanged;
+    }
+
+    /**
+     * check if another content has the same payload, media type and encoding
+     *
+     * @param other the other content
+     * @return true if the consumers would produce the same result for both
+     */
+    public boolean hasSamePayload(Content other) {
+        // Arrays.equals compares the lengths first and is vectorized by the JIT
+        return rawContent.length == other.rawContent.length && encoding.equals(other.encoding)
+                && Objects.equals(mediaType, other.mediaType) && Arrays.equals(rawContent, other.rawContent);
+    }
 }
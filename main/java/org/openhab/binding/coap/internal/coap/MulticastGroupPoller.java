@@ -0,0 +1,276 @@
+/**
+ * Copyright (c) 2010-2022 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.coap.internal.coap;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.UnknownHostException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.eclipse.californium.core.CoapClient;
+import org.eclipse.californium.core.CoapResponse;
+import org.eclipse.californium.core.MultiCoapHandler;
+import org.eclipse.californium.core.coap.CoAP;
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.elements.EndpointContext;
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The {@link MulticastGroupPoller} polls identical resources of a group of devices with a single multicast request
+ * (RFC 7252, section 8). The responses received within the leisure window are routed by their source address to the
+ * {@link RefreshingUrlCache} of the device.
+ *
+ * @author Jan N. Klug - Initial contribution
+ */
+@NonNullByDefault
+public class MulticastGroupPoller {
+    private final Logger logger = LoggerFactory.getLogger(MulticastGroupPoller.class);
+
+    private final TimingWheel timer;
+    private final RateLimitedCoAPClient rateLimitedClient;
+    private final Function<String, CoapClient> clientProvider;
+    private final long leisure; // in ms
+    private final Map<String, GroupPoll> polls = new HashMap<>();
+
+    /**
+     * create a new group poller
+     *
+     * @param timer the timer for polls and the leisure window
+     * @param rateLimitedClient the rate limiter (the group address counts as one host)
+     * @param clientProvider provides the client for a host
+     * @param leisure the time in ms responses are collected after sending the request
+     */
+    public MulticastGroupPoller(TimingWheel timer, RateLimitedCoAPClient rateLimitedClient,
+            Function<String, CoapClient> clientProvider, long leisure) {
+        this.timer = timer;
+        this.rateLimitedClient = rateLimitedClient;
+        this.clientProvider = clientProvider;
+        this.leisure = leisure;
+    }
+
+    /**
+     * poll the resource of a cache by the group instead of polling it directly
+     *
+     * @param group the multicast address of the group
+     * @param cache the cache of the resource, the host of its URL identifies the member
+     * @return true if the cache was added, false if it keeps polling itself
+     */
+    public synchronized boolean register(String group, RefreshingUrlCache cache) {
+        if (!cache.isPolling()) {
+            // observed resources don't need polling
+            return false;
+        }
+        try {
+            URI uri = cache.getUri();
+            String host = uri.getHost();
+            if (host == null) {
+                throw new URISyntaxException(uri.toString(), "no host");
+            }
+            InetAddress member = InetAddress.getByName(host);
+            URI groupUri = toGroupUri(uri, group);
+            GroupPoll poll = polls.computeIfAbsent(cache.getRequestKey(groupUri), k -> new GroupPoll(group));
+            poll.add(member, cache);
+            cache.suspendPolling();
+            logger.debug("Polling '{}' by multicast group '{}'", cache.getUrl(), groupUri);
+            return true;
+        } catch (URISyntaxException | MalformedURLException | UnknownHostException | IllegalArgumentException e) {
+            logger.warn("Cannot poll '{}' by multicast group '{}': {}", cache.getUrl(), group, e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * remove a cache from all groups
+     *
+     * @param cache the cache
+     */
+    public synchronized void unregister(RefreshingUrlCache cache) {
+        polls.values().removeIf(poll -> {
+            poll.remove(cache);
+            if (poll.isEmpty()) {
+                poll.stop();
+                return true;
+            }
+            return false;
+        });
+    }
+
+    public synchronized void shutdown() {
+        polls.values().forEach(GroupPoll::stop);
+        polls.clear();
+    }
+
+    /**
+     * get the URI of a resource on all members of a multicast group
+     *
+     * @param uri the URI of the resource on a member
+     * @param group the multicast address of the group
+     * @return the URI addressing the group
+     * @throws IllegalArgumentException if the scheme is not coap, DTLS and TCP have no multicast
+     * @throws URISyntaxException if the group is not a valid host
+     */
+    static URI toGroupUri(URI uri, String group) throws URISyntaxException {
+        if (!CoAP.COAP_URI_SCHEME.equalsIgnoreCase(uri.getScheme())) {
+            throw new IllegalArgumentException("multicast is not possible with scheme '" + uri.getScheme() + "'");
+        }
+        String host = group.startsWith("[") && group.endsWith("]") ? group.substring(1, group.length() - 1) : group;
+        return new URI(uri.getScheme(), uri.getUserInfo(), host, uri.getPort(), uri.getPath(), uri.getQuery(), null);
+    }
+
+    private class GroupPoll {
+        private final String group;
+        private final Map<InetAddress, Set<RefreshingUrlCache>> members = new ConcurrentHashMap<>();
+        private TimingWheel.@Nullable Timeout next;
+        private @Nullable Request current;
+        private boolean stopped = false;
+
+        public GroupPoll(String group) {
+            this.group = group;
+        }
+
+        public synchronized void add(InetAddress member, RefreshingUrlCache cache) {
+            members.computeIfAbsent(member, m -> ConcurrentHashMap.newKeySet()).add(cache);
+            if (next == null && current == null) {
+                // the first poll is delayed, so that all members are added
+                next = timer.schedule(this::poll, 1, TimeUnit.SECONDS);
+            }
+        }
+
+        public void remove(RefreshingUrlCache cache) {
+            members.values().removeIf(caches -> caches.remove(cache) && caches.isEmpty());
+        }
+
+        public boolean isEmpty() {
+            return members.isEmpty();
+        }
+
+        public synchronized void stop() {
+            stopped = true;
+            TimingWheel.Timeout next = this.next;
+            if (next != null) {
+                next.cancel();
+                this.next = null;
+            }
+            Request current = this.current;
+            if (current != null) {
+                current.cancel();
+                this.current = null;
+            }
+        }
+
+        private synchronized void poll() {
+            next = null;
+            RefreshingUrlCache template = members.values().stream().flatMap(Set::stream).findFirst().orElse(null);
+            if (stopped || template == null) {
+                return;
+            }
+            try {
+                URI groupUri = toGroupUri(template.getUri(), group);
+                Request request = template.createRequest(groupUri);
+                // multicast requests are never confirmable
+                request.setType(CoAP.Type.NON);
+                current = request;
+                rateLimitedClient.acquire(group, RequestPriority.POLL).whenComplete((v, e) -> {
+                    if (e != null) {
+                        logger.debug("Group poll of '{}' was not sent: {}", groupUri, e.getMessage());
+                        finish(request, null);
+                    } else {
+                        send(groupUri, request);
+                    }
+                });
+            } catch (URISyntaxException | MalformedURLException | IllegalArgumentException e) {
+                logger.warn("Creating group request for '{}' failed: {}", template.getUrl(), e.getMessage());
+                scheduleNext();
+            }
+        }
+
+        private void send(URI groupUri, Request request) {
+            Set<InetAddress> responded = ConcurrentHashMap.newKeySet();
+            logger.trace("Sending group poll to '{}'", groupUri);
+            clientProvider.apply(group).advanced(new MultiCoapHandler() {
+                @Override
+                protected void onMulticastResponse(@Nullable CoapResponse response) {
+                    if (response != null) {
+                        route(response, responded);
+                    }
+                }
+
+                @Override
+                public void onError() {
+                    logger.debug("Group poll of '{}' failed", groupUri);
+                }
+            }, request);
+            timer.schedule(() -> finish(request, responded), leisure, TimeUnit.MILLISECONDS);
+        }
+
+        private void route(CoapResponse response, Set<InetAddress> responded) {
+            EndpointContext context = response.advanced().getSourceContext();
+            InetSocketAddress peer = context != null ? context.getPeerAddress() : null;
+            Set<RefreshingUrlCache> caches = peer != null ? members.get(peer.getAddress()) : null;
+            if (peer == null || caches == null) {
+                logger.trace("Ignoring group response from unknown member {}", peer);
+                return;
+            }
+            responded.add(peer.getAddress());
+            caches.forEach(cache -> cache.processGroupResponse(response));
+        }
+
+        /**
+         * end the leisure window
+         *
+         * @param request the request
+         * @param responded the members that responded, null if the request was not sent
+         */
+        private synchronized void finish(Request request, @Nullable Set<InetAddress> responded) {
+            // the leisure window is over, late responses are dropped
+            request.cancel();
+            if (current == request) {
+                current = null;
+            }
+            if (responded != null) {
+                logger.debug("Group poll to '{}' received {} of {} responses", group, responded.size(),
+                        members.size());
+                // members that did not answer have failed like an unanswered unicast poll
+                members.forEach((member, caches) -> {
+                    if (!stopped && !responded.contains(member)) {
+                        logger.trace("Member {} of group '{}' did not respond", member, group);
+                        caches.forEach(RefreshingUrlCache::processGroupTimeout);
+                    }
+                });
+            }
+            scheduleNext();
+        }
+
+        private synchronized void scheduleNext() {
+            if (stopped) {
+                return;
+            }
+            int interval = members.values().stream().flatMap(Set::stream).mapToInt(RefreshingUrlCache::getInterval)
+                    .min().orElse(0);
+            if (interval > 0) {
+                next = timer.schedule(this::poll, interval, TimeUnit.SECONDS);
+            }
+        }
+    }
+}
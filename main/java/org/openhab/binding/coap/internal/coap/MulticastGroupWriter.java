@@ -0,0 +1,233 @@
+/**
+ * Copyright (c) 2010-2022 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.coap.internal.coap;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import org.eclipse.californium.core.CoapClient;
+import org.eclipse.californium.core.CoapHandler;
+import org.eclipse.californium.core.CoapResponse;
+import org.eclipse.californium.core.coap.CoAP;
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The {@link MulticastGroupWriter} collects the commands sent to the members of a multicast group. If all members
+ * receive an identical command within a short window (e.g. because the command was sent to an openHAB group), one
+ * multicast request is sent instead of one request per member. Otherwise the commands are sent individually.
+ *
+ * @author Jan N. Klug - Initial contribution
+ */
+@NonNullByDefault
+public class MulticastGroupWriter {
+    private final Logger logger = LoggerFactory.getLogger(MulticastGroupWriter.class);
+
+    private final TimingWheel timer;
+    private final RateLimitedCoAPClient rateLimitedClient;
+    private final Function<String, CoapClient> clientProvider;
+    private final long window; // in ms
+    private final Map<String, Set<String>> members = new HashMap<>();
+    private final Map<String, Batch> batches = new HashMap<>();
+
+    /**
+     * create a new group writer
+     *
+     * @param timer the timer for the collection window
+     * @param rateLimitedClient the rate limiter (the group address counts as one host)
+     * @param clientProvider provides the client for a host
+     * @param window the time in ms commands are collected
+     */
+    public MulticastGroupWriter(TimingWheel timer, RateLimitedCoAPClient rateLimitedClient,
+            Function<String, CoapClient> clientProvider, long window) {
+        this.timer = timer;
+        this.rateLimitedClient = rateLimitedClient;
+        this.clientProvider = clientProvider;
+        this.window = window;
+    }
+
+    /**
+     * add a member for a command resource of a group
+     *
+     * @param key identifies the group and the command resource
+     * @param member identifies the member (e.g. the thing UID)
+     */
+    public synchronized void register(String key, String member) {
+        members.computeIfAbsent(key, k -> new HashSet<>()).add(member);
+    }
+
+    /**
+     * remove a member from all groups
+     *
+     * @param member the member
+     */
+    public synchronized void unregister(String member) {
+        members.values().removeIf(set -> set.remove(member) && set.isEmpty());
+    }
+
+    /**
+     * submit a command of a member
+     *
+     * @param key identifies the group and the command resource
+     * @param group the multicast address of the group
+     * @param member the member
+     * @param uri the (unicast) URI of the command
+     * @param payload the payload of the command
+     * @param requestFactory creates the request (including the payload) for a URI
+     * @param unicast sends the command to the member only
+     * @param verify called after the command was sent by multicast (e.g. to refresh the state), may be null
+     * @return a future that completes when the command was sent
+     */
+    public CompletableFuture<?> submit(String key, String group, String member, URI uri, byte[] payload,
+            Function<URI, Request> requestFactory, Supplier<CompletableFuture<?>> unicast,
+            @Nullable Runnable verify) {
+        Entry entry = new Entry(uri, payload, requestFactory, unicast, verify);
+        Batch flushNow = null;
+        synchronized (this) {
+            Batch batch = batches.get(key);
+            if (batch != null && batch.entries.containsKey(member)) {
+                // a second command of the same member, the commands of this window can't be merged anymore
+                batches.remove(key);
+                flushNow = batch;
+                batch = null;
+            }
+            if (batch == null) {
+                Batch newBatch = new Batch(key, group);
+                batches.put(key, newBatch);
+                timer.schedule(() -> flush(newBatch), window, TimeUnit.MILLISECONDS);
+                batch = newBatch;
+            }
+            batch.entries.put(member, entry);
+        }
+        if (flushNow != null) {
+            send(flushNow, false);
+        }
+        return entry.result;
+    }
+
+    private void flush(Batch batch) {
+        boolean complete;
+        synchronized (this) {
+            if (batches.get(batch.key) != batch) {
+                // already flushed
+                return;
+            }
+            batches.remove(batch.key);
+            complete = batch.entries.keySet().equals(members.get(batch.key));
+        }
+        send(batch, complete);
+    }
+
+    private void send(Batch batch, boolean complete) {
+        Entry first = batch.entries.values().iterator().next();
+        boolean identical = batch.entries.values().stream().allMatch(entry -> entry.isSameCommand(first));
+        if (complete && identical) {
+            sendMulticast(batch, first);
+        } else {
+            logger.trace("Sending {} commands for '{}' individually", batch.entries.size(), batch.key);
+            batch.entries.values().forEach(Entry::sendUnicast);
+        }
+    }
+
+    private void sendMulticast(Batch batch, Entry command) {
+        try {
+            URI groupUri = MulticastGroupPoller.toGroupUri(command.uri, batch.group);
+            Request request = command.requestFactory.apply(groupUri);
+            // multicast requests are never confirmable
+            request.setType(CoAP.Type.NON);
+            rateLimitedClient.acquire(batch.group, RequestPriority.COMMAND).whenComplete((v, e) -> {
+                if (e != null) {
+                    logger.warn("Sending to group '{}' failed: {}", groupUri, e.getMessage());
+                    batch.entries.values().forEach(entry -> entry.result.complete(null));
+                    return;
+                }
+                logger.debug("Sending command for {} members to group '{}'", batch.entries.size(), groupUri);
+                clientProvider.apply(batch.group).advanced(new CoapHandler() {
+                    @Override
+                    public void onLoad(@Nullable CoapResponse response) {
+                        // members usually suppress responses to multicast requests
+                    }
+
+                    @Override
+                    public void onError() {
+                        logger.debug("Sending to group '{}' failed", groupUri);
+                    }
+                }, request);
+                batch.entries.values().forEach(entry -> {
+                    entry.result.complete(null);
+                    Runnable verify = entry.verify;
+                    if (verify != null) {
+                        timer.schedule(verify, window, TimeUnit.MILLISECONDS);
+                    }
+                });
+            });
+        } catch (URISyntaxException | IllegalArgumentException e) {
+            logger.warn("Creating group request for '{}' failed, sending individually: {}", command.uri,
+                    e.getMessage());
+            batch.entries.values().forEach(Entry::sendUnicast);
+        }
+    }
+
+    private static class Batch {
+        private final String key;
+        private final String group;
+        private final Map<String, Entry> entries = new LinkedHashMap<>();
+
+        public Batch(String key, String group) {
+            this.key = key;
+            this.group = group;
+        }
+    }
+
+    private static class Entry {
+        private final URI uri;
+        private final byte[] payload;
+        private final Function<URI, Request> requestFactory;
+        private final Supplier<CompletableFuture<?>> unicast;
+        private final @Nullable Runnable verify;
+        private final CompletableFuture<@Nullable Void> result = new CompletableFuture<>();
+
+        public Entry(URI uri, byte[] payload, Function<URI, Request> requestFactory,
+                Supplier<CompletableFuture<?>> unicast, @Nullable Runnable verify) {
+            this.uri = uri;
+            this.payload = payload;
+            this.requestFactory = requestFactory;
+            this.unicast = unicast;
+            this.verify = verify;
+        }
+
+        public boolean isSameCommand(Entry other) {
+            return Objects.equals(uri.getRawPath(), other.uri.getRawPath())
+                    && Objects.equals(uri.getRawQuery(), other.uri.getRawQuery())
+                    && Arrays.equals(payload, other.payload);
+        }
+
+        public void sendUnicast() {
+            unicast.get().whenComplete((r, e) -> result.complete(null));
+        }
+    }
+}
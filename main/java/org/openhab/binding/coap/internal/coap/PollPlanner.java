@@ -0,0 +1,233 @@
+/**
+ * Copyright (c) 2010-2022 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.coap.internal.coap;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The {@link PollPlanner} plans the polls of all things addressing the same host. The polls are spread evenly over
+ * the refresh interval and the resulting request rate is checked against the rate limit of the host.
+ *
+ * Only caches that are new to the plan get a phase, the running schedules are kept. The first plan of a host starts at
+ * the first poll of its earliest cache, so the initial jitter of the caches still separates the plans of different
+ * hosts. Later caches, and caches whose adaptive interval changed, are placed into the largest gap between the
+ * scheduled polls of the others.
+ *
+ * @author Jan N. Klug - Initial contribution
+ */
+@NonNullByDefault
+public class PollPlanner {
+    // delay before the first planned poll, so that all consumers are added
+    private static final long START_DELAY = 1000; // in ms
+
+    private final Logger logger = LoggerFactory.getLogger(PollPlanner.class);
+    private final RateLimitedCoAPClient rateLimitedClient;
+    private final Map<String, Set<RefreshingUrlCache>> hosts = new HashMap<>();
+    private final Map<String, Set<Consumer<@Nullable String>>> listeners = new HashMap<>();
+    // caches with a phase in the plan of their host
+    private final Set<RefreshingUrlCache> phased = new HashSet<>();
+
+    public PollPlanner(RateLimitedCoAPClient rateLimitedClient) {
+        this.rateLimitedClient = rateLimitedClient;
+    }
+
+    /**
+     * add polled URLs of a host and re-plan the host
+     *
+     * the result of the new plan is reported to the listeners of all things polling this host
+     *
+     * @param host the destination host
+     * @param caches the caches of the URLs
+     * @param listener receives a description of the problem if the host cannot serve the planned polls, null if the
+     *            plan is feasible
+     */
+    public void register(String host, Collection<RefreshingUrlCache> caches, Consumer<@Nullable String> listener) {
+        String problem;
+        Set<Consumer<@Nullable String>> affected;
+        synchronized (this) {
+            Set<RefreshingUrlCache> planned = hosts.computeIfAbsent(host, h -> new HashSet<>());
+            for (RefreshingUrlCache cache : caches) {
+                if (planned.add(cache)) {
+                    cache.addIntervalListener(() -> replan(host, cache));
+                }
+            }
+            listeners.computeIfAbsent(host, h -> new HashSet<>()).add(listener);
+            problem = plan(host);
+            affected = Set.copyOf(listeners.get(host));
+        }
+        // the listeners update the thing status, they are called without holding the lock
+        affected.forEach(l -> l.accept(problem));
+    }
+
+    /**
+     * remove polled URLs of a host and re-plan the host
+     *
+     * @param host the destination host
+     * @param caches the caches of the URLs
+     * @param listener the listener passed on registration
+     */
+    public void unregister(String host, Collection<RefreshingUrlCache> caches, Consumer<@Nullable String> listener) {
+        String problem;
+        Set<Consumer<@Nullable String>> affected;
+        synchronized (this) {
+            Set<RefreshingUrlCache> planned = hosts.get(host);
+            Set<Consumer<@Nullable String>> hostListeners = listeners.get(host);
+            if (planned == null || hostListeners == null) {
+                return;
+            }
+            hostListeners.remove(listener);
+            planned.removeAll(caches);
+            phased.removeAll(caches);
+            if (planned.isEmpty() || hostListeners.isEmpty()) {
+                phased.removeAll(planned);
+                hosts.remove(host);
+                listeners.remove(host);
+                return;
+            }
+            problem = plan(host);
+            affected = Set.copyOf(hostListeners);
+        }
+        affected.forEach(l -> l.accept(problem));
+    }
+
+    /**
+     * place a cache whose adaptive interval changed into the plan again, its phase was chosen for the old interval
+     *
+     * @param host the destination host
+     * @param cache the cache
+     */
+    private synchronized void replan(String host, RefreshingUrlCache cache) {
+        Set<RefreshingUrlCache> planned = hosts.get(host);
+        if (planned == null || !planned.contains(cache) || !cache.isPolling()) {
+            return;
+        }
+        phased.remove(cache);
+        place(getPolling(planned), cache);
+    }
+
+    private @Nullable String plan(String host) {
+        Set<RefreshingUrlCache> planned = hosts.get(host);
+        List<RefreshingUrlCache> caches = planned != null ? getPolling(planned) : List.of();
+        if (caches.isEmpty()) {
+            return null;
+        }
+
+        double required = 0; // in requests/s, with all intervals at their minimum
+        for (RefreshingUrlCache cache : caches) {
+            required += 1.0 / cache.getMinInterval();
+        }
+        double rate = rateLimitedClient.getRate(host);
+
+        List<RefreshingUrlCache> added = new ArrayList<>();
+        caches.stream().filter(cache -> !phased.contains(cache)).forEach(added::add);
+        if (added.size() == caches.size()) {
+            // evenly spaced within the shortest interval, but never closer than the rate limit allows
+            double spacing = (double) getShortestInterval(caches) / caches.size();
+            if (rate > 0) {
+                spacing = Math.max(spacing, 1000.0 / rate);
+            }
+            // the first poll of the earliest cache keeps its initial jitter
+            long start = Math.max(START_DELAY, caches.stream().mapToLong(RefreshingUrlCache::getNextPollDelay).min()
+                    .orElse(START_DELAY));
+            for (int i = 0; i < caches.size(); i++) {
+                RefreshingUrlCache cache = caches.get(i);
+                long phase = (long) (i * spacing) % (cache.getInterval() * 1000L);
+                cache.setPhase(start + phase);
+            }
+            phased.addAll(caches);
+            logger.debug("Planned {} polled URLs for host '{}' with a spacing of {}ms ({} requests/s)",
+                    caches.size(), host, (long) spacing, String.format("%.2f", required));
+        } else {
+            // the running polls keep their schedule
+            added.forEach(cache -> place(caches, cache));
+            logger.debug("Added {} polled URLs to the plan of host '{}' ({} requests/s)", added.size(), host,
+                    String.format("%.2f", required));
+        }
+
+        if (rate > 0 && required > rate) {
+            String problem = String.format(
+                    "Polling %d URLs of host '%s' needs up to %.2f requests/s, but the rate limit is %.2f requests/s",
+                    caches.size(), host, required, rate);
+            logger.warn("{}", problem);
+            return problem;
+        }
+        return null;
+    }
+
+    /**
+     * move the next poll of a cache into the largest gap between the next polls of the other phased caches
+     *
+     * @param caches the polled caches of the host
+     * @param cache the cache to place
+     */
+    private void place(List<RefreshingUrlCache> caches, RefreshingUrlCache cache) {
+        long period = getShortestInterval(caches);
+        List<Long> offsets = new ArrayList<>();
+        for (RefreshingUrlCache other : caches) {
+            long delay = other.getNextPollDelay();
+            if (other != cache && phased.contains(other) && delay >= 0) {
+                offsets.add(delay % period);
+            }
+        }
+        phased.add(cache);
+        if (offsets.isEmpty()) {
+            // the only poll of the host, there is nothing to spread
+            return;
+        }
+        Collections.sort(offsets);
+        long gapStart = 0;
+        long gap = -1;
+        for (int i = 0; i < offsets.size(); i++) {
+            long next = i + 1 < offsets.size() ? offsets.get(i + 1) : offsets.get(0) + period;
+            if (next - offsets.get(i) > gap) {
+                gapStart = offsets.get(i);
+                gap = next - offsets.get(i);
+            }
+        }
+        long delay = gapStart + gap / 2;
+        while (delay < START_DELAY) {
+            delay += period;
+        }
+        cache.setPhase(delay);
+    }
+
+    private List<RefreshingUrlCache> getPolling(Set<RefreshingUrlCache> planned) {
+        List<RefreshingUrlCache> caches = new ArrayList<>();
+        planned.stream().filter(RefreshingUrlCache::isPolling).forEach(caches::add);
+        // a stable order, so that the same configuration always results in the same plan
+        caches.sort(Comparator.comparing(RefreshingUrlCache::getUrl));
+        return caches;
+    }
+
+    private long getShortestInterval(List<RefreshingUrlCache> caches) {
+        long shortestInterval = Long.MAX_VALUE;
+        for (RefreshingUrlCache cache : caches) {
+            shortestInterval = Math.min(shortestInterval, cache.getInterval() * 1000L);
+        }
+        return shortestInterval;
+    }
+}
@@ -0,0 +1,102 @@
+/**
+ * Copyright (c) 2010-2022 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.coap.internal.coap;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The {@link ProcessingScope} executes the processing of results (transformations and state updates) of a thing.
+ * By default the results are processed in the thread completing the request. With virtual threads (Java 21), each
+ * result is processed in its own virtual thread, so blocking transformations don't block the threads of the binding.
+ * Closing the scope interrupts the running tasks and rejects new ones.
+ *
+ * @author Jan N. Klug - Initial contribution
+ */
+@NonNullByDefault
+public class ProcessingScope implements Executor {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ProcessingScope.class);
+
+    private final @Nullable ExecutorService executor;
+    private volatile boolean closed = false;
+
+    private ProcessingScope(@Nullable ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * create a scope that processes in the calling thread
+     *
+     * @return the scope
+     */
+    public static ProcessingScope direct() {
+        return new ProcessingScope(null);
+    }
+
+    /**
+     * create a scope that processes in virtual threads, falls back to the calling thread if virtual threads are not
+     * available
+     *
+     * @param name the name prefix of the threads
+     * @return the scope
+     */
+    public static ProcessingScope virtual(String name) {
+        try {
+            // the binding is built for older Java versions, so the Java 21 API is called by reflection
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, name + "-", 0L);
+            ThreadFactory factory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+            ExecutorService executor = (ExecutorService) Executors.class
+                    .getMethod("newThreadPerTaskExecutor", ThreadFactory.class).invoke(null, factory);
+            return new ProcessingScope(executor);
+        } catch (ClassNotFoundException | NoSuchMethodException | IllegalAccessException
+                | InvocationTargetException e) {
+            LOGGER.warn("Virtual threads are not available (Java 21 required), processing in request threads");
+            return direct();
+        }
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        if (closed) {
+            throw new RejectedExecutionException("Processing scope is closed");
+        }
+        ExecutorService executor = this.executor;
+        if (executor != null) {
+            executor.execute(command);
+        } else {
+            command.run();
+        }
+    }
+
+    /**
+     * interrupt the running tasks and reject new ones
+     */
+    public void close() {
+        closed = true;
+        ExecutorService executor = this.executor;
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -12,147 +12,351 @@
  */
 package org.openhab.binding.coap.internal.coap;
 
-import java.net.URI;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.RejectedExecutionException;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
 
-import org.eclipse.californium.core.CoapClient;
-import org.eclipse.californium.core.coap.CoAP;
-import org.eclipse.californium.core.coap.CoAP.Code;
-import org.eclipse.californium.core.coap.Request;
 import org.eclipse.jdt.annotation.NonNullByDefault;
 import org.eclipse.jdt.annotation.Nullable;
 
 /**
- * The {@link RateLimitedCoAPClient} is a wrapper for a Californium CoAP client that limits the number of requests by
- * delaying
- * the request creation
+ * The {@link RateLimitedCoAPClient} limits the number of requests per destination host with a token bucket. The
+ * buckets are shared by all things, so all things addressing the same device are paced together.
+ *
+ * Waiting requests are served by priority class (see {@link RequestPriority}): commands overtake all background
+ * requests, the other classes share the remaining rate by weight. Each class has its own queue limit.
+ *
+ * Acquiring a permit never blocks: if a token is available the returned future is already completed, otherwise it is
+ * completed by a one-shot wakeup on the timing wheel as soon as the bucket has refilled.
  *
  * @author Jan N. Klug - Initial contribution
  */
 @NonNullByDefault
 public class RateLimitedCoAPClient {
-    private static final int MAX_QUEUE_SIZE = 1000; // maximum queue size
-    private CoapClient coapClient;
-    private int delay = 0; // in ms
-    private final ScheduledExecutorService scheduler;
-    private final LinkedBlockingQueue<RequestQueueEntry> requestQueue = new LinkedBlockingQueue<>(MAX_QUEUE_SIZE);
+    private final TimingWheel timer;
+    private final double defaultRate; // in requests/s, 0 = unlimited
+    private final int defaultBurst;
+    private final LongSupplier clock; // in ns
+    private final Map<String, TokenBucket> buckets = new ConcurrentHashMap<>();
 
-    private @Nullable ScheduledFuture<?> processJob;
+    /**
+     * create a new rate limiter
+     *
+     * @param timer the timing wheel for wakeups
+     * @param defaultRate the default rate per host in requests/s (0 = unlimited)
+     * @param defaultBurst the default number of requests that may be sent without delay
+     */
+    public RateLimitedCoAPClient(TimingWheel timer, double defaultRate, int defaultBurst) {
+        this(timer, defaultRate, defaultBurst, System::nanoTime);
+    }
 
-    public RateLimitedCoAPClient(CoapClient coapClient, ScheduledExecutorService scheduler) {
-        this.coapClient = coapClient;
-        this.scheduler = scheduler;
+    /**
+     * create a new rate limiter with the given clock for refilling the buckets
+     *
+     * @param timer the timing wheel for wakeups
+     * @param defaultRate the default rate per host in requests/s (0 = unlimited)
+     * @param defaultBurst the default number of requests that may be sent without delay
+     * @param clock the current time in ns
+     */
+    RateLimitedCoAPClient(TimingWheel timer, double defaultRate, int defaultBurst, LongSupplier clock) {
+        this.timer = timer;
+        this.defaultRate = Math.max(0, defaultRate);
+        this.defaultBurst = Math.max(1, defaultBurst);
+        this.clock = clock;
     }
 
     /**
-     * Stop processing the queue and clear it
+     * Stop processing and cancel all waiting requests
      */
     public void shutdown() {
-        stopProcessJob();
-        requestQueue.forEach(queueEntry -> queueEntry.future.completeExceptionally(new CancellationException()));
+        buckets.values().forEach(TokenBucket::clear);
+        buckets.clear();
     }
 
     /**
-     * Set a new delay
+     * Limit the rate for a host. If several things configure the same host, the most restrictive rate is used.
+     *
+     * A new delay of the same owner replaces the previous one, so the limit is relaxed if the delay is shortened.
      *
-     * @param delay in ms between to requests
+     * @param host the destination host
+     * @param owner the thing configuring the delay
+     * @param delay minimum delay between two requests in ms (0 keeps the default rate)
      */
-    public void setDelay(int delay) {
+    public void limitHost(String host, String owner, int delay) {
         if (delay < 0) {
             throw new IllegalArgumentException("Delay needs to be larger or equal to zero");
         }
-        this.delay = delay;
-        stopProcessJob();
-        if (delay != 0) {
-            processJob = scheduler.scheduleWithFixedDelay(this::processQueue, 0, delay, TimeUnit.MILLISECONDS);
+        getBucket(host).limit(owner, delay);
+    }
+
+    /**
+     * Remove the delay of a thing, the rate of the host is restored to the most restrictive remaining delay or the
+     * default rate
+     *
+     * @param host the destination host
+     * @param owner the thing that configured the delay
+     */
+    public void unlimitHost(String host, String owner) {
+        TokenBucket bucket = buckets.get(host);
+        if (bucket != null) {
+            bucket.limit(owner, 0);
         }
     }
 
     /**
-     * Set the CoAP client
+     * Get the rate limit of a host
      *
-     * @param coapClient Californium coap client
+     * @param host the destination host
+     * @return the rate in requests/s, 0 if the host is not limited
      */
-    public void setCoapClient(CoapClient coapClient) {
-        this.coapClient = coapClient;
+    public double getRate(String host) {
+        return getBucket(host).getRate();
     }
 
     /**
-     * Create a new request to the given URL respecting rate-limits
+     * Acquire a permit for sending a request to the given host
      *
-     * @param finalUrl the request URL
-     * @param method CoAP request method GET/PUT/POST
-     * @param content the content (if method PUT/POST)
-     * @return a CompletableFuture that completes with the request
+     * @param host the destination host
+     * @param priority the priority class of the request
+     * @return a CompletableFuture that completes when the request may be sent. Cancelling it releases the place in the
+     *         queue.
      */
-    public CompletableFuture<Request> newRequest(URI finalUri, CoAP.Code method, String content) {
-        // if no delay is set, return a completed CompletableFuture
-        CompletableFuture<Request> future = new CompletableFuture<>();
-        RequestQueueEntry queueEntry = new RequestQueueEntry(finalUri, method, content, future);
-        if (delay == 0) {
-            queueEntry.completeFuture(coapClient);
-        } else {
-            if (!requestQueue.offer(queueEntry)) {
-                future.completeExceptionally(new RejectedExecutionException("Maximum queue size exceeded."));
+    public CompletableFuture<@Nullable Void> acquire(String host, RequestPriority priority) {
+        return getBucket(host).acquire(priority);
+    }
+
+    /**
+     * Get the current state of the bucket of a host
+     *
+     * @param host the destination host
+     * @return a description of the bucket or null if the host is not limited
+     */
+    public @Nullable String getStatus(String host) {
+        TokenBucket bucket = buckets.get(host);
+        return bucket != null && bucket.getRate() > 0 ? bucket.toString() : null;
+    }
+
+    private TokenBucket getBucket(String host) {
+        return buckets.computeIfAbsent(host, h -> new TokenBucket(defaultRate, defaultBurst));
+    }
+
+    private class TokenBucket {
+        private final Map<RequestPriority, Queue<CompletableFuture<@Nullable Void>>> lanes = new EnumMap<>(
+                RequestPriority.class);
+        // credits for the weighted lanes (smooth weighted round-robin)
+        private final Map<RequestPriority, Integer> credits = new EnumMap<>(RequestPriority.class);
+        private final int burst;
+        // minimum delays between two requests in ms by the configuring thing
+        private final Map<String, Integer> delays = new HashMap<>();
+        private double rate;
+        private double tokens;
+        private long lastRefill = clock.getAsLong();
+        private TimingWheel.@Nullable Timeout wakeup;
+
+        public TokenBucket(double rate, int burst) {
+            this.rate = rate;
+            this.burst = burst;
+            this.tokens = burst;
+            for (RequestPriority priority : RequestPriority.values()) {
+                lanes.put(priority, new ArrayDeque<>());
+                credits.put(priority, 0);
             }
         }
-        return future;
-    }
 
-    // /**
-    // * Get the AuthenticationStore from the wrapped client
-    // *
-    // * @return
-    // */
-    // public AuthenticationStore getAuthenticationStore() {
-    // return coapClient.getAuthenticationStore();
-    // }
-
-    private void stopProcessJob() {
-        ScheduledFuture<?> processJob = this.processJob;
-        if (processJob != null) {
-            processJob.cancel(false);
-            this.processJob = null;
+        public synchronized double getRate() {
+            return rate;
+        }
+
+        public synchronized void limit(String owner, int delay) {
+            if (delay > 0) {
+                delays.put(owner, delay);
+            } else {
+                delays.remove(owner);
+            }
+            refill();
+            double newRate = defaultRate;
+            for (int ownerDelay : delays.values()) {
+                double ownerRate = 1000.0 / ownerDelay;
+                newRate = newRate == 0 ? ownerRate : Math.min(newRate, ownerRate);
+            }
+            rate = newRate;
+            TimingWheel.Timeout wakeup = this.wakeup;
+            if (wakeup != null) {
+                // the wakeup was calculated for the previous rate, if the limit is lifted the waiting requests are
+                // released immediately
+                wakeup.cancel();
+                this.wakeup = null;
+                scheduleWakeup();
+            }
         }
-    }
 
-    @SuppressWarnings("null")
-    private void processQueue() {
-        RequestQueueEntry queueEntry = requestQueue.poll();
-        if (queueEntry != null) {
-            queueEntry.completeFuture(coapClient);
+        public CompletableFuture<@Nullable Void> acquire(RequestPriority priority) {
+            synchronized (this) {
+                if (rate == 0) {
+                    return CompletableFuture.completedFuture(null);
+                }
+                refill();
+                if (tokens >= 1 && !hasWaiting(priority)) {
+                    tokens -= 1;
+                    return CompletableFuture.completedFuture(null);
+                }
+                CompletableFuture<@Nullable Void> future = new CompletableFuture<>();
+                Queue<CompletableFuture<@Nullable Void>> lane = getLane(priority);
+                if (lane.size() >= priority.getMaxQueueSize()) {
+                    future.completeExceptionally(
+                            new RejectedExecutionException("Maximum queue size for " + priority + " exceeded."));
+                    return future;
+                }
+                lane.add(future);
+                scheduleWakeup();
+                return future;
+            }
         }
-    }
 
-    private static class RequestQueueEntry {
-        private URI finalUri;
-        private CoAP.Code method;
-        private String content;
-        private CompletableFuture<Request> future;
+        public void clear() {
+            List<CompletableFuture<@Nullable Void>> cancelled = new ArrayList<>();
+            synchronized (this) {
+                TimingWheel.Timeout wakeup = this.wakeup;
+                if (wakeup != null) {
+                    wakeup.cancel();
+                    this.wakeup = null;
+                }
+                lanes.values().forEach(lane -> {
+                    cancelled.addAll(lane);
+                    lane.clear();
+                });
+            }
+            cancelled.forEach(future -> future.completeExceptionally(new CancellationException()));
+        }
 
-        public RequestQueueEntry(URI finalUrl2, Code method2, String content, CompletableFuture<Request> future) {
-            this.finalUri = finalUrl2;
-            this.method = method2;
-            this.content = content;
-            this.future = future;
+        private void process() {
+            List<CompletableFuture<@Nullable Void>> permitted = new ArrayList<>();
+            synchronized (this) {
+                wakeup = null;
+                refill();
+                CompletableFuture<@Nullable Void> future;
+                while ((rate == 0 || tokens >= 1) && (future = next()) != null) {
+                    // futures cancelled while waiting don't consume a token
+                    if (rate > 0) {
+                        tokens -= 1;
+                    }
+                    permitted.add(future);
+                }
+                if (hasWaiting(null)) {
+                    scheduleWakeup();
+                }
+            }
+            // complete outside the lock, dependent actions run in this thread
+            permitted.forEach(future -> future.complete(null));
         }
 
         /**
-         * complete the future with a request
+         * select the next waiting request: strict lanes first, then the weighted lanes by smooth weighted round-robin
          *
-         * @param coapClient the client to create the request
+         * @return the next future or null if no request is waiting
          */
-        public void completeFuture(CoapClient coapClient) {
+        private @Nullable CompletableFuture<@Nullable Void> next() {
+            for (RequestPriority priority : RequestPriority.values()) {
+                if (priority.getWeight() == 0) {
+                    CompletableFuture<@Nullable Void> future = poll(getLane(priority));
+                    if (future != null) {
+                        return future;
+                    }
+                }
+            }
+            while (true) {
+                RequestPriority selected = null;
+                int total = 0;
+                for (RequestPriority priority : RequestPriority.values()) {
+                    if (priority.getWeight() == 0 || peek(getLane(priority)) == null) {
+                        continue;
+                    }
+                    int credit = credits.getOrDefault(priority, 0) + priority.getWeight();
+                    credits.put(priority, credit);
+                    total += priority.getWeight();
+                    if (selected == null || credit > credits.getOrDefault(selected, 0)) {
+                        selected = priority;
+                    }
+                }
+                if (selected == null) {
+                    return null;
+                }
+                credits.put(selected, credits.getOrDefault(selected, 0) - total);
+                CompletableFuture<@Nullable Void> future = poll(getLane(selected));
+                if (future != null) {
+                    return future;
+                }
+            }
+        }
 
-            Request request = new Request(method);
+        /**
+         * check if requests are waiting
+         *
+         * @param lowest the lowest priority class to check, null for all
+         * @return true if a request of this or a higher class is waiting
+         */
+        private boolean hasWaiting(@Nullable RequestPriority lowest) {
+            for (RequestPriority priority : RequestPriority.values()) {
+                if (peek(getLane(priority)) != null) {
+                    return true;
+                }
+                if (priority == lowest) {
+                    break;
+                }
+            }
+            return false;
+        }
+
+        private Queue<CompletableFuture<@Nullable Void>> getLane(RequestPriority priority) {
+            Queue<CompletableFuture<@Nullable Void>> lane = lanes.get(priority);
+            if (lane == null) {
+                throw new IllegalStateException("No lane for priority " + priority);
+            }
+            return lane;
+        }
+
+        private @Nullable CompletableFuture<@Nullable Void> peek(Queue<CompletableFuture<@Nullable Void>> lane) {
+            CompletableFuture<@Nullable Void> future;
+            while ((future = lane.peek()) != null && future.isDone()) {
+                lane.poll();
+            }
+            return future;
+        }
+
+        private @Nullable CompletableFuture<@Nullable Void> poll(Queue<CompletableFuture<@Nullable Void>> lane) {
+            CompletableFuture<@Nullable Void> future = peek(lane);
+            return future != null ? lane.poll() : null;
+        }
+
+        private void scheduleWakeup() {
+            if (wakeup == null) {
+                long delay = rate == 0 ? 0 : (long) Math.ceil((1 - tokens) * 1000000 / rate);
+                wakeup = timer.schedule(this::process, delay, TimeUnit.MICROSECONDS);
+            }
+        }
+
+        private void refill() {
+            long now = clock.getAsLong();
+            tokens = Math.min(burst, tokens + (now - lastRefill) * rate / 1e9);
+            lastRefill = now;
+        }
 
-            future.complete(request);
+        @Override
+        public synchronized String toString() {
+            StringBuilder waiting = new StringBuilder();
+            lanes.forEach((priority, lane) -> waiting.append(waiting.length() == 0 ? "" : ", ").append(priority)
+                    .append('=').append(lane.size()));
+            return String.format("rate=%.1f/s, burst=%d, tokens=%.1f, waiting: %s", rate, burst, tokens, waiting);
         }
     }
 }
@@ -12,29 +12,35 @@
  */
 package org.openhab.binding.coap.internal.coap;
 
+import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
-import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 
 import org.eclipse.californium.core.CoapClient;
+import org.eclipse.californium.core.CoapHandler;
+import org.eclipse.californium.core.CoapObserveRelation;
+import org.eclipse.californium.core.CoapResponse;
 import org.eclipse.californium.core.coap.CoAP.Code;
+import org.eclipse.californium.core.coap.CoAP.Type;
+import org.eclipse.californium.core.coap.Request;
 import org.eclipse.jdt.annotation.NonNullByDefault;
 import org.eclipse.jdt.annotation.Nullable;
-import org.eclipse.jetty.client.api.Authentication;
-import org.eclipse.jetty.client.api.AuthenticationStore;
 import org.openhab.binding.coap.internal.Util;
 import org.openhab.binding.coap.internal.config.CoAPThingConfig;
+import org.openhab.binding.coap.internal.transform.JsonPathExtractor;
+import org.openhab.core.util.HexUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -46,115 +52,558 @@ import org.slf4j.LoggerFactory;
  */
 @NonNullByDefault
 public class RefreshingUrlCache {
+    // additional time after Max-Age before an observe relation is considered lost
+    private static final int OBSERVE_GRACE_PERIOD = 5; // in s
+    // maximum spread of the first polls after startup
+    private static final int MAX_INITIAL_JITTER = 5; // in s
+
     private final Logger logger = LoggerFactory.getLogger(RefreshingUrlCache.class);
 
     private final String url;
     private final boolean escapedUrl;
-    // private final RateLimitedCoAPClient httpClient;
-    private final CoapClient httpClient;
+    private final CoapClient coapClient;
+    private final CongestionController congestionController;
+    private final RateLimitedCoAPClient rateLimitedClient;
+    private final SingleFlightRegistry singleFlightRegistry;
+    private final TimingWheel timer;
+    private final Executor processor;
+    private final int refresh;
     private final int timeout;
     private final int bufferSize;
+    private final int blockSize;
     private final @Nullable String fallbackEncoding;
     private final Set<Consumer<Content>> consumers = ConcurrentHashMap.newKeySet();
-    private final List<String> headers;
+    // consumers that also receive contents identical to the previous one
+    private final Set<Consumer<Content>> forcedConsumers = ConcurrentHashMap.newKeySet();
+    private final Set<Runnable> failureListeners = ConcurrentHashMap.newKeySet();
+    private final Set<Runnable> intervalListeners = ConcurrentHashMap.newKeySet();
+    private final JsonPathExtractor jsonPathExtractor = new JsonPathExtractor();
     private final Code httpMethod;
+    private final Type messageType;
     private final String httpContent;
 
-    private final ScheduledFuture<?> future;
+    private TimingWheel.@Nullable Timeout future;
+    private long nextPoll = 0; // System.nanoTime() of the scheduled poll, the following polls keep its phase
+    private @Nullable CoapObserveRelation observeRelation;
+    private @Nullable ObserveHandler observeHandler;
+    private TimingWheel.@Nullable Timeout observeWatchdog;
+    private boolean stopped = false;
+    private boolean groupPolled = false;
+    // a REFRESH command was received, the next result is passed to all consumers even if it is unchanged
+    private boolean refreshRequested = false;
     private @Nullable Content lastContent;
+    // the current representation if it has an ETag, a 2.03 Valid response can only confirm this one
+    private @Nullable Content validator;
+    private long freshUntil = 0; // System.nanoTime() until the last content is fresh, 0 if not fresh
+    private @Nullable CompletableFuture<@Nullable Content> pendingResponse;
+    private CompletableFuture<@Nullable Void> pendingResult = CompletableFuture.completedFuture(null);
+    // results are processed in order, even if the processor runs them in different threads
+    private CompletableFuture<@Nullable Void> processing = CompletableFuture.completedFuture(null);
+    // adaptive polling: the interval is halved on changes and doubled while the content stays the same
+    private int minInterval;
+    private int maxInterval;
+    private int interval;
+    private boolean boundsConfigured = false;
 
-    // public RefreshingUrlCache(ScheduledExecutorService executor, RateLimitedCoAPClient httpClient, String url,
-    public RefreshingUrlCache(ScheduledExecutorService executor, CoapClient coapClient, String url, boolean escapedUrl,
+    public RefreshingUrlCache(TimingWheel timer, Executor processor, CoapClient coapClient,
+            CongestionController congestionController, RateLimitedCoAPClient rateLimitedClient,
+            SingleFlightRegistry singleFlightRegistry, String url, boolean escapedUrl, Type messageType,
             CoAPThingConfig thingConfig, String httpContent) {
-        this.httpClient = coapClient;
+        this.timer = timer;
+        this.processor = processor;
+        this.coapClient = coapClient;
+        this.congestionController = congestionController;
+        this.rateLimitedClient = rateLimitedClient;
+        this.singleFlightRegistry = singleFlightRegistry;
         this.url = url;
         this.escapedUrl = escapedUrl;
+        this.messageType = messageType;
+        this.refresh = thingConfig.refresh;
+        this.minInterval = refresh;
+        this.maxInterval = refresh;
+        this.interval = refresh;
         this.timeout = thingConfig.timeout;
         this.bufferSize = thingConfig.bufferSize;
-        this.headers = thingConfig.headers;
+        this.blockSize = thingConfig.blockSize;
         this.httpMethod = thingConfig.stateMethod;
         this.httpContent = httpContent;
         fallbackEncoding = thingConfig.encoding;
 
-        future = executor.scheduleWithFixedDelay(this::refresh, 1, thingConfig.refresh, TimeUnit.SECONDS);
-        logger.trace("Started refresh task for URL '{}' with interval {}s", url, thingConfig.refresh);
+        if (thingConfig.observe && httpMethod == Code.GET) {
+            // the first registration is delayed like the first poll, so that all consumers are added
+            observeWatchdog = timer.schedule(this::startObserve, 1, TimeUnit.SECONDS);
+        } else {
+            // spread the first polls of all URLs over a short window (deterministic per URL), a long refresh interval
+            // must not delay the first value
+            int jitter = Math.max(1, Math.min(refresh, MAX_INITIAL_JITTER)) * 1000;
+            startPolling(1000 + Math.floorMod(url.hashCode() * 0x9e3779b9, jitter));
+        }
     }
 
-    private void refresh() {
-        refresh(false);
+    /**
+     * set the bounds for the adaptive refresh interval. If several channels use this URL, the fastest minimum and the
+     * fastest maximum are used.
+     *
+     * @param min the minimum interval in s (0 for the refresh interval of the thing)
+     * @param max the maximum interval in s (0 for the refresh interval of the thing)
+     */
+    public synchronized void setRefreshBounds(int min, int max) {
+        int newMin = min > 0 ? min : refresh;
+        int newMax = Math.max(newMin, max > 0 ? max : refresh);
+        if (boundsConfigured) {
+            minInterval = Math.min(minInterval, newMin);
+            maxInterval = Math.min(maxInterval, newMax);
+        } else {
+            minInterval = newMin;
+            maxInterval = newMax;
+            boundsConfigured = true;
+        }
+        maxInterval = Math.max(minInterval, maxInterval);
+        interval = Math.max(minInterval, Math.min(maxInterval, interval));
     }
 
-    private void refresh(boolean isRetry) {
-        if (consumers.isEmpty()) {
-            // do not refresh if we don't have listeners
+    private synchronized void startPolling(long initialDelay) {
+        if (stopped || future != null) {
             return;
         }
+        scheduleRefresh(initialDelay, TimeUnit.MILLISECONDS);
+        logger.trace("Started refresh task for URL '{}' with interval {}s ({}-{}s)", url, interval, minInterval,
+                maxInterval);
+    }
+
+    /**
+     * move the next poll, used for spreading the polls of a host evenly
+     *
+     * @param delay the delay of the next poll in ms
+     */
+    public synchronized void setPhase(long delay) {
+        if (isPolling()) {
+            scheduleRefresh(delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * get the time until the next poll
+     *
+     * @return the delay in ms, -1 if the URL is not polled
+     */
+    public synchronized long getNextPollDelay() {
+        if (!isPolling()) {
+            return -1;
+        }
+        return Math.max(0, TimeUnit.NANOSECONDS.toMillis(nextPoll - System.nanoTime()));
+    }
+
+    public synchronized boolean isPolling() {
+        return !stopped && future != null;
+    }
+
+    public synchronized int getInterval() {
+        return interval;
+    }
+
+    public synchronized int getMinInterval() {
+        return minInterval;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    private synchronized void scheduleRefresh(long delay, TimeUnit unit) {
+        if (!stopped && !groupPolled) {
+            nextPoll = System.nanoTime() + unit.toNanos(delay);
+            schedulePoll(delay, unit);
+        }
+    }
+
+    private synchronized void schedulePoll(long delay, TimeUnit unit) {
+        // there is only one poll scheduled at any time
+        TimingWheel.Timeout future = this.future;
+        if (future != null) {
+            future.cancel();
+        }
+        this.future = timer.schedule(this::refresh, delay, unit);
+    }
+
+    /**
+     * schedule the poll after the current one at a fixed rate, so that the phase set by the {@link PollPlanner} does
+     * not drift with the duration of the exchanges
+     */
+    private synchronized void scheduleNextPoll() {
+        if (stopped || groupPolled) {
+            return;
+        }
+        long now = System.nanoTime();
+        long period = TimeUnit.SECONDS.toNanos(Math.max(1, interval));
+        nextPoll += period;
+        if (nextPoll - now < 0) {
+            // the poll was delayed by more than a period, missed polls are skipped
+            nextPoll += ((now - nextPoll) / period + 1) * period;
+        }
+        schedulePoll(TimeUnit.NANOSECONDS.toMillis(nextPoll - now), TimeUnit.MILLISECONDS);
+    }
+
+    private void refresh() {
+        scheduleNextPoll();
+        if (consumers.isEmpty() || getFreshContent() != null) {
+            // do not refresh if we don't have listeners or the content is still fresh (Max-Age)
+            return;
+        }
+        fetch(RequestPriority.POLL);
+    }
+
+    /**
+     * adapt the refresh interval to the change of the content
+     *
+     * @param changed true if the content changed
+     * @return true if the interval was changed
+     */
+    private synchronized boolean adaptInterval(boolean changed) {
+        int newInterval = changed ? Math.max(minInterval, interval / 2)
+                : (int) Math.min(maxInterval, (long) interval * 2);
+        if (newInterval != interval) {
+            logger.trace("Refresh interval for '{}' changed from {}s to {}s", url, interval, newInterval);
+            interval = newInterval;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * request the resource and pass the result to all consumers
+     *
+     * concurrent fetches of the same resource (also from other things) share one exchange
+     *
+     * @param priority the priority class of the request
+     * @return a future that completes when the result was passed to the consumers
+     */
+    public CompletableFuture<@Nullable Void> fetch(RequestPriority priority) {
+        if (priority == RequestPriority.REFRESH) {
+            synchronized (this) {
+                refreshRequested = true;
+            }
+        }
+        Content freshContent = getFreshContent();
+        if (freshContent != null) {
+            // the device announced that the content does not change before Max-Age expires
+            logger.trace("Content of '{}' is still fresh, not requesting", url);
+            return process(() -> dispatch(freshContent));
+        }
 
         // format URL
         try {
-            String url = String.format(this.url, new Date());
-            URI uri = escapedUrl ? new URI(url) : Util.uriFromString(url);
-            logger.trace("Requesting refresh (retry={}) from '{}' with timeout {}ms", isRetry, uri, timeout);
-
-            httpClient.newRequest(uri, httpMethod, httpContent).thenAccept(request -> {
-                request.timeout(timeout, TimeUnit.MILLISECONDS);
-
-                headers.forEach(header -> {
-                    String[] keyValuePair = header.split("=", 2);
-                    if (keyValuePair.length == 2) {
-                        request.header(keyValuePair[0].trim(), keyValuePair[1].trim());
-                    } else {
-                        logger.warn("Splitting header '{}' failed. No '=' was found. Ignoring", header);
-                    }
-                });
-
-                CompletableFuture<@Nullable Content> response = new CompletableFuture<>();
-                response.exceptionally(e -> {
-                    if (e instanceof CoapAuthException) {
-                        if (isRetry) {
-                            logger.warn("Retry after authentication failure failed again for '{}', failing here", uri);
-                        } else {
-                            AuthenticationStore authStore = httpClient.getAuthenticationStore();
-                            Authentication.Result authResult = authStore.findAuthenticationResult(uri);
-                            if (authResult != null) {
-                                authStore.removeAuthenticationResult(authResult);
-                                logger.debug("Cleared authentication result for '{}', retrying immediately", uri);
-                                refresh(true);
-                            } else {
-                                logger.warn("Could not find authentication result for '{}', failing here", uri);
-                            }
-                        }
-                    }
-                    return null;
-                }).thenAccept(this::processResult);
-
-                if (logger.isTraceEnabled()) {
-                    logger.trace("Sending to '{}': {}", uri, Util.requestToLogString(request));
+            URI uri = getUri();
+            List<byte[]> etags = getETags();
+            CompletableFuture<@Nullable Content> response = singleFlightRegistry.fetch(getTransferKey(uri, etags),
+                    () -> startTransfer(uri, etags, priority));
+            CompletableFuture<@Nullable Void> result;
+            synchronized (this) {
+                // only one result processing per exchange, even if several fetches attach to it
+                if (response == pendingResponse) {
+                    return pendingResult;
                 }
-
-                request.send(new CoAPResponseListener(response, fallbackEncoding, bufferSize));
-            }).exceptionally(e -> {
-                if (e instanceof CancellationException) {
-                    logger.debug("Request to URL {} was cancelled by thing handler.", uri);
-                } else {
-                    logger.warn("Request to URL {} failed: {}", uri, e.getMessage());
-                }
-                return null;
-            });
+                result = new CompletableFuture<>();
+                pendingResponse = response;
+                pendingResult = result;
+            }
+            // the consumers are called without holding the lock
+            response.exceptionally(e -> null).thenCompose(content -> process(() -> processResult(content)))
+                    .whenComplete((r, e) -> result.complete(null));
+            return result;
         } catch (IllegalArgumentException | URISyntaxException | MalformedURLException e) {
             logger.warn("Creating request for '{}' failed: {}", url, e.getMessage());
+            return CompletableFuture.completedFuture(null);
+        }
+    }
+
+    private CompletableFuture<@Nullable Content> startTransfer(URI uri, List<byte[]> etags,
+            RequestPriority priority) {
+        logger.trace("Requesting refresh from '{}' with timeout {}ms", uri, timeout);
+
+        CompletableFuture<@Nullable Content> response = new CompletableFuture<>();
+        response.exceptionally(e -> {
+            if (e instanceof CoapAuthException) {
+                logger.warn("Authentication failed for '{}': {}", uri, e.getMessage());
+            }
+            return null;
+        });
+
+        Block2Transfer transfer = new Block2Transfer(coapClient, congestionController, timer, timeout, () -> {
+            Request request = createRequest(uri, etags);
+            if (logger.isTraceEnabled()) {
+                logger.trace("Sending to '{}': {}", uri, Util.requestToLogString(request));
+            }
+            return request;
+        }, uri, response, fallbackEncoding, bufferSize, blockSize, priority);
+        CompletableFuture<@Nullable Void> permit = rateLimitedClient.acquire(uri.getHost(), priority);
+        permit.whenComplete((v, e) -> {
+            if (e == null) {
+                transfer.start();
+            } else {
+                logger.debug("Request to '{}' was not sent: {}", uri, e.getMessage());
+                response.complete(null);
+            }
+        });
+        // the transfer applies the timeout to each block exchange (for NON requests it also releases the token of a
+        // request that was lost), here it only limits the time waiting for the rate limit
+        timer.schedule(() -> {
+            if (!permit.isDone()) {
+                permit.cancel(false);
+                response.complete(null);
+            }
+        }, timeout, TimeUnit.MILLISECONDS);
+        return response;
+    }
+
+    /**
+     * register an observe relation (RFC 7641) for this URL
+     *
+     * notifications are passed to the consumers as they arrive, polling is only used if the resource turns out to be
+     * not observable
+     */
+    private synchronized void startObserve() {
+        if (stopped) {
+            return;
+        }
+        try {
+            URI uri = getUri();
+            Request request = createRequest(uri);
+            request.setObserve();
+            logger.trace("Registering observe relation for '{}'", uri);
+            ObserveHandler observeHandler = new ObserveHandler(uri);
+            this.observeHandler = observeHandler;
+            observeRelation = coapClient.observe(request, observeHandler);
+        } catch (IllegalArgumentException | URISyntaxException | MalformedURLException e) {
+            logger.warn("Creating observe request for '{}' failed: {}", url, e.getMessage());
+        }
+    }
+
+    private synchronized void restartObserve(int delay) {
+        cancelObserve();
+        if (!stopped) {
+            observeWatchdog = timer.schedule(this::startObserve, delay, TimeUnit.SECONDS);
+        }
+    }
+
+    private synchronized void cancelObserve() {
+        TimingWheel.Timeout observeWatchdog = this.observeWatchdog;
+        if (observeWatchdog != null) {
+            observeWatchdog.cancel();
+            this.observeWatchdog = null;
+        }
+        // responses to the cancellation must not be treated as notifications
+        observeHandler = null;
+        CoapObserveRelation observeRelation = this.observeRelation;
+        if (observeRelation != null) {
+            if (!observeRelation.isCanceled()) {
+                observeRelation.proactiveCancel();
+            }
+            this.observeRelation = null;
+        }
+    }
+
+    /**
+     * stop polling, the content is requested by a multicast group poll and passed to
+     * {@link #processGroupResponse(CoapResponse)}
+     */
+    synchronized void suspendPolling() {
+        groupPolled = true;
+        TimingWheel.Timeout future = this.future;
+        if (future != null) {
+            future.cancel();
+            this.future = null;
+        }
+    }
+
+    /**
+     * process the response of this resource to a multicast group poll
+     *
+     * @param response the response of the member
+     */
+    void processGroupResponse(CoapResponse response) {
+        if (!response.isSuccess()) {
+            logger.debug("Group poll of '{}' failed with response code {}", url, response.getCode());
+            process(() -> processResult(null));
+        } else if (response.getPayload().length > bufferSize * 1024) {
+            logger.warn("Response for '{}' exceeds buffer size of {} kB, ignoring", url, bufferSize);
+            process(() -> processResult(null));
+        } else {
+            Content content = CoAPResponseListener.toContent(response,
+                    fallbackEncoding != null ? fallbackEncoding : StandardCharsets.UTF_8.name());
+            process(() -> processResult(content));
+        }
+    }
+
+    /**
+     * process a multicast group poll this resource did not respond to
+     */
+    void processGroupTimeout() {
+        logger.debug("No response to group poll from '{}'", url);
+        process(() -> {
+            processResult(null);
+            failureListeners.forEach(Runnable::run);
+        });
+    }
+
+    private void onNotification(ObserveHandler handler, URI uri, CoapResponse response) {
+        if (!updateObserveState(handler, uri, response)) {
+            return;
+        }
+        if (response.getPayload().length > bufferSize * 1024) {
+            logger.warn("Notification from '{}' exceeds buffer size of {} kB, ignoring", uri, bufferSize);
+            return;
+        }
+        Content content = CoAPResponseListener.toContent(response,
+                fallbackEncoding != null ? fallbackEncoding : StandardCharsets.UTF_8.name());
+        process(() -> processResult(content));
+    }
+
+    /**
+     * check a notification and re-arm the Max-Age watchdog
+     *
+     * @return true if the notification shall be passed to the consumers
+     */
+    private synchronized boolean updateObserveState(ObserveHandler handler, URI uri, CoapResponse response) {
+        if (stopped || handler != observeHandler) {
+            return false;
         }
+        if (!response.isSuccess() || !response.getOptions().hasObserve()) {
+            // the server did not establish the relation, use the polling path instead
+            logger.debug("Resource '{}' is not observable (response code {}), falling back to polling", uri,
+                    response.getCode());
+            cancelObserve();
+            startPolling(0);
+            return false;
+        }
+
+        // a notification is expected at the latest when the current representation expires
+        TimingWheel.Timeout observeWatchdog = this.observeWatchdog;
+        if (observeWatchdog != null) {
+            observeWatchdog.cancel();
+        }
+        long maxAge = response.getOptions().getMaxAge();
+        this.observeWatchdog = timer.schedule(() -> {
+            logger.debug("No notification received for '{}' within Max-Age of {}s, re-registering", uri, maxAge);
+            restartObserve(0);
+        }, maxAge + OBSERVE_GRACE_PERIOD, TimeUnit.SECONDS);
+        return true;
+    }
+
+    private synchronized void onObserveError(ObserveHandler handler, URI uri) {
+        if (!stopped && handler == observeHandler) {
+            logger.debug("Observe relation for '{}' failed, re-registering in {}s", uri, refresh);
+            restartObserve(refresh);
+        }
+    }
+
+    /**
+     * get a key identifying the request to the given URI (method, URI and request content)
+     *
+     * @param uri the resolved URI
+     * @return the key
+     */
+    String getRequestKey(URI uri) {
+        return httpMethod + " " + uri + " " + httpContent;
+    }
+
+    /**
+     * get a key identifying a transfer, only transfers with the same key may share an exchange. The key contains the
+     * serialized request (method, message type, URI, all options and the payload) and the settings that change how the
+     * response is received and decoded.
+     *
+     * @param uri the resolved URI
+     * @param etags the ETags sent for validation
+     * @return the key
+     */
+    String getTransferKey(URI uri, List<byte[]> etags) {
+        Request request = createRequest(uri, etags);
+        return request.getCode() + " " + request.getType() + " " + uri + " " + request.getOptions() + " "
+                + HexUtils.bytesToHex(request.getPayload()) + " block=" + blockSize + " buffer=" + bufferSize
+                + " timeout=" + timeout + " encoding=" + fallbackEncoding;
     }
 
-    public void stop() {
+    private Request createRequest(URI uri, List<byte[]> etags) {
+        Request request = createRequest(uri);
+        // let the device validate the representation we already have (RFC 7252, 5.10.6)
+        etags.forEach(request.getOptions()::addETag);
+        return request;
+    }
+
+    Request createRequest(URI uri) {
+        Request request = new Request(httpMethod, messageType);
+        request.setURI(uri);
+        if (httpMethod != Code.GET && !httpContent.isEmpty()) {
+            request.setPayload(httpContent);
+        }
+        return request;
+    }
+
+    URI getUri() throws URISyntaxException, MalformedURLException {
+        String url = String.format(this.url, new Date());
+        return escapedUrl ? new URI(url) : Util.uriFromString(url);
+    }
+
+    public synchronized void stop() {
         // clearing all listeners to prevent further updates
         consumers.clear();
-        future.cancel(false);
+        forcedConsumers.clear();
+        failureListeners.clear();
+        intervalListeners.clear();
+        stopped = true;
+        TimingWheel.Timeout future = this.future;
+        if (future != null) {
+            future.cancel();
+            this.future = null;
+        }
+        cancelObserve();
         logger.trace("Stopped refresh task for URL '{}'", url);
     }
 
     public void addConsumer(Consumer<Content> consumer) {
+        addConsumer(consumer, false);
+    }
+
+    /**
+     * add a consumer
+     *
+     * @param consumer the consumer
+     * @param forceUpdate if true, the consumer also receives contents that are identical to the previous one
+     */
+    public void addConsumer(Consumer<Content> consumer, boolean forceUpdate) {
         consumers.add(consumer);
+        if (forceUpdate) {
+            forcedConsumers.add(consumer);
+        }
+    }
+
+    /**
+     * add a listener that is called when a multicast group poll was not answered by this resource
+     *
+     * @param listener the listener
+     */
+    public void addFailureListener(Runnable listener) {
+        failureListeners.add(listener);
+    }
+
+    /**
+     * add a listener that is called when the adaptive refresh interval changed
+     *
+     * @param listener the listener
+     */
+    public void addIntervalListener(Runnable listener) {
+        intervalListeners.add(listener);
+    }
+
+    /**
+     * add the state transformation of a consumer, a leading JSONPath step is extracted together with the ones of the
+     * other consumers in a single pass over payloads with a JSON content format
+     *
+     * @param transformation the transformation pattern
+     * @return true if the leading step is extracted by the cache
+     */
+    public boolean addJsonPath(String transformation) {
+        return jsonPathExtractor.add(transformation);
     }
 
     public Optional<Content> get() {
@@ -166,16 +615,150 @@ public class RefreshingUrlCache {
         }
     }
 
+    /**
+     * run a processing step after the previous ones with the processor of the thing
+     *
+     * @param step the processing step
+     * @return a future that completes when the step is finished
+     */
+    private CompletableFuture<@Nullable Void> process(Runnable step) {
+        CompletableFuture<@Nullable Void> next = new CompletableFuture<>();
+        CompletableFuture<@Nullable Void> previous;
+        synchronized (this) {
+            previous = processing;
+            processing = next;
+        }
+        // a failed or rejected step must not block the following ones
+        previous.exceptionally(e -> null).thenRunAsync(step, processor).whenComplete((r, e) -> {
+            if (e != null) {
+                next.completeExceptionally(e);
+            } else {
+                next.complete(null);
+            }
+        });
+        return next;
+    }
+
     private void processResult(@Nullable Content content) {
-        if (content != null) {
-            for (Consumer<Content> consumer : consumers) {
-                try {
-                    consumer.accept(content);
-                } catch (IllegalArgumentException | IllegalStateException e) {
-                    logger.warn("Failed processing result for URL {}: {}", url, e.getMessage());
+        if (content == null) {
+            synchronized (this) {
+                lastContent = null;
+                freshUntil = 0;
+            }
+            return;
+        }
+        Content result = content;
+        boolean changed;
+        boolean refreshed;
+        boolean intervalChanged;
+        synchronized (this) {
+            byte[] etag = content.getETag();
+            if (content.isUnchanged()) {
+                // 2.03 Valid: the current representation is still valid
+                Content validator = this.validator;
+                byte[] validatorEtag = validator != null ? validator.getETag() : null;
+                if (validator == null || etag == null || !Arrays.equals(etag, validatorEtag)) {
+                    logger.debug("Received 2.03 Valid for '{}' with unknown ETag, ignoring", url);
+                    return;
                 }
+                updateFreshness(content.getMaxAge());
+                result = validator;
+            } else {
+                // a new representation replaces the previous one, also if it has no ETag
+                validator = etag != null ? content : null;
+                updateFreshness(content.getMaxAge());
             }
+            Content lastContent = this.lastContent;
+            changed = lastContent == null || (result != lastContent && !result.hasSamePayload(lastContent));
+            intervalChanged = adaptInterval(changed);
+            this.lastContent = result;
+            refreshed = refreshRequested;
+            refreshRequested = false;
+        }
+        if (intervalChanged) {
+            // the listeners plan the polls of several caches, they are called without holding the lock
+            intervalListeners.forEach(Runnable::run);
+        }
+        if (changed || refreshed || !forcedConsumers.isEmpty()) {
+            extractJsonPaths(result);
+        }
+        if (changed || refreshed) {
+            // a REFRESH command needs the state also if it is unchanged (e.g. for a newly linked item)
+            dispatch(result, consumers);
+        } else {
+            // the consumers would produce the same states again, only the freshness was updated
+            logger.trace("Content of '{}' is unchanged", url);
+            dispatch(result, forcedConsumers);
+        }
+    }
+
+    private void extractJsonPaths(Content content) {
+        String mediaType = content.getMediaType();
+        if (jsonPathExtractor.isEmpty() || content.getRawContent().length == 0 || mediaType == null
+                || !mediaType.contains("json")) {
+            // only payloads declared as JSON are parsed, everything else is left to the transformation service
+            return;
+        }
+        try {
+            // the results are taken from the memo by the transformations instead of calling the service
+            jsonPathExtractor.extract(content.getReader()).forEach(content.getTransformationMemo()::put);
+        } catch (IOException e) {
+            // the transformation service reports the problem for each channel
+            logger.debug("Failed to extract JSON values from '{}': {}", url, e.getMessage());
+        }
+    }
+
+    private void dispatch(Content content) {
+        dispatch(content, consumers);
+    }
+
+    private void dispatch(Content content, Set<Consumer<Content>> consumers) {
+        for (Consumer<Content> consumer : consumers) {
+            try {
+                consumer.accept(content);
+            } catch (IllegalArgumentException | IllegalStateException e) {
+                logger.warn("Failed processing result for URL {}: {}", url, e.getMessage());
+            }
+        }
+    }
+
+    private void updateFreshness(long maxAge) {
+        freshUntil = maxAge > 0 ? System.nanoTime() + TimeUnit.SECONDS.toNanos(maxAge) : 0;
+    }
+
+    private synchronized @Nullable Content getFreshContent() {
+        if (freshUntil != 0 && freshUntil - System.nanoTime() > 0) {
+            return lastContent;
+        }
+        return null;
+    }
+
+    private synchronized List<byte[]> getETags() {
+        Content validator = this.validator;
+        byte[] etag = validator != null ? validator.getETag() : null;
+        if (httpMethod != Code.GET || etag == null) {
+            return List.of();
+        }
+        return List.of(etag);
+    }
+
+    private class ObserveHandler implements CoapHandler {
+        private final URI uri;
+
+        public ObserveHandler(URI uri) {
+            this.uri = uri;
+        }
+
+        @Override
+        public void onLoad(@Nullable CoapResponse response) {
+            if (response != null) {
+                onNotification(this, uri, response);
+            }
+        }
+
+        @Override
+        public void onError() {
+            onObserveError(this, uri);
         }
-        lastContent = content;
     }
 }
@@ -0,0 +1,57 @@
+/**
+ * Copyright (c) 2010-2022 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.coap.internal.coap;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+
+/**
+ * The {@link RequestPriority} is the priority class of a request. Interactive commands are always served first, the
+ * other classes share the remaining capacity according to their weight.
+ *
+ * Polls are the lowest class. The binding has no discovery service, so there is no discovery or other background
+ * traffic below them. Such a class would be added with a weight below the one of {@link #POLL}.
+ *
+ * @author Jan N. Klug - Initial contribution
+ */
+@NonNullByDefault
+public enum RequestPriority {
+    COMMAND(0, 100),
+    REFRESH(4, 200),
+    POLL(2, 1000);
+
+    private final int weight;
+    private final int maxQueueSize;
+
+    RequestPriority(int weight, int maxQueueSize) {
+        this.weight = weight;
+        this.maxQueueSize = maxQueueSize;
+    }
+
+    /**
+     * get the weight of this class
+     *
+     * @return the weight, 0 for strict priority
+     */
+    public int getWeight() {
+        return weight;
+    }
+
+    /**
+     * get the maximum number of requests of this class waiting per host
+     *
+     * @return the queue limit
+     */
+    public int getMaxQueueSize() {
+        return maxQueueSize;
+    }
+}
@@ -0,0 +1,76 @@
+/**
+ * Copyright (c) 2010-2022 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.coap.internal.coap;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The {@link SingleFlightRegistry} keeps track of outstanding reads. Concurrent reads of the same resource are
+ * attached to the exchange already in flight instead of starting a new one.
+ *
+ * @author Jan N. Klug - Initial contribution
+ */
+@NonNullByDefault
+public class SingleFlightRegistry {
+    private final Logger logger = LoggerFactory.getLogger(SingleFlightRegistry.class);
+    private final Map<String, CompletableFuture<@Nullable Content>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * get the result of an outstanding read or start a new one
+     *
+     * @param key the key of the read (the serialized request and the settings of the transfer)
+     * @param starter starts the read if none is in flight
+     * @return a future that completes with the result of the read
+     */
+    public CompletableFuture<@Nullable Content> fetch(String key,
+            Supplier<CompletableFuture<@Nullable Content>> starter) {
+        CompletableFuture<@Nullable Content> placeholder = new CompletableFuture<>();
+        CompletableFuture<@Nullable Content> existing = inFlight.putIfAbsent(key, placeholder);
+        if (existing != null) {
+            logger.trace("Attaching to outstanding read '{}'", key);
+            return existing;
+        }
+        try {
+            starter.get().whenComplete((content, e) -> {
+                // remove before completing, so that dependent actions can start a new read
+                inFlight.remove(key, placeholder);
+                if (e != null) {
+                    placeholder.completeExceptionally(e);
+                } else {
+                    placeholder.complete(content);
+                }
+            });
+        } catch (RuntimeException e) {
+            inFlight.remove(key, placeholder);
+            placeholder.completeExceptionally(e);
+        }
+        return placeholder;
+    }
+
+    /**
+     * get the number of reads in flight
+     *
+     * @return the number of reads
+     */
+    public int size() {
+        return inFlight.size();
+    }
+}
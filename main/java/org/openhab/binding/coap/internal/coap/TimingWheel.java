@@ -0,0 +1,213 @@
+/**
+ * Copyright (c) 2010-2022 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.coap.internal.coap;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+import org.openhab.core.common.NamedThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The {@link TimingWheel} is a hashed timing wheel for a large number of one-shot timers (polls, request timeouts and
+ * rate limit wakeups). Scheduling and cancelling are O(1), a single thread advances the wheel and hands expired tasks
+ * in batches to the given executor.
+ *
+ * @author Jan N. Klug - Initial contribution
+ */
+@NonNullByDefault
+public class TimingWheel {
+    // maximum number of expired tasks handed to the executor as one job
+    private static final int BATCH_SIZE = 32;
+
+    private final Logger logger = LoggerFactory.getLogger(TimingWheel.class);
+
+    private final Executor executor;
+    private final long tickNanos;
+    private final List<List<Timeout>> wheel;
+    private final int mask;
+    private final Queue<Timeout> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean started = new AtomicBoolean(false);
+
+    private volatile boolean stopped = false;
+    private long startTime;
+    private long tick = 0;
+    private @Nullable Thread thread;
+
+    /**
+     * create a new timing wheel
+     *
+     * @param executor the (bounded) executor for running expired tasks
+     * @param tickDuration the duration of one tick (the resolution of the timer)
+     * @param unit the unit of the tick duration
+     * @param ticksPerWheel the number of buckets, rounded up to a power of two
+     */
+    public TimingWheel(Executor executor, long tickDuration, TimeUnit unit, int ticksPerWheel) {
+        this.executor = executor;
+        this.tickNanos = Math.max(1, unit.toNanos(tickDuration));
+        int size = Integer.highestOneBit(Math.max(1, ticksPerWheel - 1)) << 1;
+        this.wheel = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            wheel.add(new ArrayList<>());
+        }
+        this.mask = size - 1;
+    }
+
+    /**
+     * schedule a task
+     *
+     * @param task the task
+     * @param delay the delay, rounded up to the next tick
+     * @param unit the unit of the delay
+     * @return a handle for cancelling the task
+     */
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        if (stopped) {
+            throw new RejectedExecutionException("Timing wheel is stopped");
+        }
+        start();
+        Timeout timeout = new Timeout(task, System.nanoTime() + unit.toNanos(Math.max(0, delay)));
+        pending.add(timeout);
+        return timeout;
+    }
+
+    /**
+     * stop the wheel, all scheduled tasks are dropped
+     */
+    public void stop() {
+        stopped = true;
+        Thread thread = this.thread;
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    private void start() {
+        if (started.compareAndSet(false, true)) {
+            startTime = System.nanoTime();
+            Thread thread = new NamedThreadFactory("coap-timer", true).newThread(this::run);
+            this.thread = thread;
+            thread.start();
+        }
+    }
+
+    private void run() {
+        while (!stopped) {
+            long deadline = startTime + (tick + 1) * tickNanos;
+            long sleepNanos = deadline - System.nanoTime();
+            if (sleepNanos > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleepNanos);
+                } catch (InterruptedException e) {
+                    if (stopped) {
+                        break;
+                    }
+                    continue;
+                }
+            }
+            transferPending();
+            expire(wheel.get((int) (tick & mask)), deadline);
+            tick++;
+        }
+        wheel.forEach(List::clear);
+        pending.clear();
+    }
+
+    private void transferPending() {
+        Timeout timeout;
+        while ((timeout = pending.poll()) != null) {
+            if (timeout.isCancelled()) {
+                continue;
+            }
+            // never schedule into the past, overdue tasks expire with the current tick
+            long ticks = Math.max(tick, (timeout.deadline - startTime + tickNanos - 1) / tickNanos - 1);
+            timeout.remainingRounds = (ticks - tick) / wheel.size();
+            wheel.get((int) (ticks & mask)).add(timeout);
+        }
+    }
+
+    private void expire(List<Timeout> bucket, long deadline) {
+        List<Runnable> batch = new ArrayList<>(BATCH_SIZE);
+        Iterator<Timeout> iterator = bucket.iterator();
+        while (iterator.hasNext()) {
+            Timeout timeout = iterator.next();
+            if (timeout.isCancelled()) {
+                iterator.remove();
+            } else if (timeout.remainingRounds <= 0 && timeout.deadline <= deadline) {
+                iterator.remove();
+                batch.add(timeout.task);
+                if (batch.size() == BATCH_SIZE) {
+                    dispatch(batch);
+                    batch = new ArrayList<>(BATCH_SIZE);
+                }
+            } else {
+                timeout.remainingRounds--;
+            }
+        }
+        if (!batch.isEmpty()) {
+            dispatch(batch);
+        }
+    }
+
+    private void dispatch(List<Runnable> batch) {
+        try {
+            executor.execute(() -> batch.forEach(task -> {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    logger.warn("Scheduled task failed: {}", e.getMessage());
+                }
+            }));
+        } catch (RejectedExecutionException e) {
+            logger.debug("Could not run {} expired tasks: {}", batch.size(), e.getMessage());
+        }
+    }
+
+    /**
+     * A handle for a scheduled task
+     */
+    public static class Timeout {
+        private final Runnable task;
+        private final long deadline;
+        private final AtomicBoolean cancelled = new AtomicBoolean(false);
+        private long remainingRounds;
+
+        private Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * cancel the task
+         *
+         * @return true if the task was cancelled by this call
+         */
+        public boolean cancel() {
+            return cancelled.compareAndSet(false, true);
+        }
+
+        public boolean isCancelled() {
+            return cancelled.get();
+        }
+    }
+}
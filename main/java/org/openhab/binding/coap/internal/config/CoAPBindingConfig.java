@@ -0,0 +1,47 @@
+/**
+ * Copyright (c) 2010-2022 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.coap.internal.config;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+
+/**
+ * The {@link CoAPBindingConfig} class contains fields mapping binding configuration parameters.
+ *
+ * @author Jan N. Klug - Initial contribution
+ */
+@NonNullByDefault
+public class CoAPBindingConfig {
+
+    public int endpointCount = 1;
+    public int localPort = 0;
+    public int nstart = 1;
+    public double requestRate = 10; // requests/s per host, 0 = unlimited
+    public int requestBurst = 4;
+    public int workerThreads = 4;
+    public boolean virtualThreads = false; // process results in virtual threads (Java 21)
+    public int transformationThreads = 2;
+    public int transformationQueueSize = 1000;
+    public int transformationBudget = 1000; // in ms
+    public int transformationsPerThing = 2;
+    public int multicastLeisure = 2000; // in ms
+    public int multicastWriteWindow = 100; // in ms
+    public int tcpIdleTimeout = 600; // in s
+    public int tcpMaxMessageSize = 8192;
+    public int tcpBulkBlocks = 4; // BERT block size in kB, 1 = no BERT
+    public int dtlsLocalPort = 0;
+    public int dtlsConnectionIdLength = 6; // 0 = no Connection ID
+    public String rpkPrivateKey = "";
+    public String rpkPublicKey = "";
+    public String trustedRpks = ""; // comma separated
+    public boolean dtlsSaveConnections = true;
+}
@@ -16,6 +16,7 @@ import java.math.BigDecimal;
 import java.util.HashMap;
 import java.util.Map;
 
+import org.eclipse.californium.core.coap.CoAP.Type;
 import org.eclipse.jdt.annotation.NonNullByDefault;
 import org.eclipse.jdt.annotation.Nullable;
 import org.openhab.binding.coap.internal.converter.ColorItemConverter;
@@ -47,6 +48,12 @@ public class CoAPChannelConfig {
     public @Nullable String commandTransformation;
     public String stateContent = "";
     public boolean escapedUrl = false;
+    public int minRefresh = 0; // in s, 0 = refresh of thing
+    public int maxRefresh = 0; // in s, 0 = refresh of thing
+    public @Nullable Type messageType; // null = message type of thing
+    public boolean forceUpdate = false; // update the state even if the payload is unchanged
+    public @Nullable String cborPath; // path of the value in a CBOR payload, null = whole payload
+    public @Nullable String senMLName; // resolved name of the SenML record, null = payload is not a SenML pack
 
     public CoAPChannelMode mode = CoAPChannelMode.READWRITE;
 
@@ -16,6 +16,7 @@ import java.util.ArrayList;
 
 import org.eclipse.californium.core.coap.CoAP;
 import org.eclipse.californium.core.coap.CoAP.Code;
+import org.eclipse.californium.core.coap.CoAP.Type;
 import org.eclipse.jdt.annotation.NonNullByDefault;
 import org.eclipse.jdt.annotation.Nullable;
 
@@ -31,6 +32,13 @@ public class CoAPThingConfig {
     public int refresh = 30;
     public int timeout = 3000;
     public int delay = 0;
+    public boolean observe = false;
+    public @Nullable String multicastGroup = null;
+    public boolean multicastWrite = false;
+    public boolean multicastVerify = false;
+
+    public String pskIdentity = "";
+    public String pskKey = ""; // text or hex with prefix 0x
 
     public String username = "";
     public String password = "";
@@ -42,7 +50,11 @@ public class CoAPThingConfig {
     // "CoAP supports the basic methods of GET, POST, PUT, DELETE, which are easily mapped to HTTP."
     public Code commandMethod = CoAP.Code.GET;
 
+    // NON requests need no ACK and no retransmission state, a lost request is simply repeated with the next poll
+    public Type messageType = CoAP.Type.CON;
+
     public int bufferSize = 255; // by default
+    public int blockSize = 1024; // preferred block size for block-wise transfers
 
     public @Nullable String encoding = null;
     public @Nullable String contentType = null;
@@ -12,13 +12,16 @@
  */
 package org.openhab.binding.coap.internal.converter;
 
+import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 
 import org.eclipse.jdt.annotation.NonNullByDefault;
 import org.eclipse.jdt.annotation.Nullable;
+import org.openhab.binding.coap.internal.cbor.CborReader;
 import org.openhab.binding.coap.internal.coap.Content;
 import org.openhab.binding.coap.internal.config.CoAPChannelConfig;
 import org.openhab.binding.coap.internal.config.CoAPChannelMode;
+import org.openhab.binding.coap.internal.senml.SenMLRecord;
 import org.openhab.binding.coap.internal.transform.ValueTransformation;
 import org.openhab.core.types.Command;
 import org.openhab.core.types.State;
@@ -32,14 +35,14 @@ import org.openhab.core.types.State;
 public abstract class AbstractTransformingItemConverter implements ItemValueConverter {
     private final Consumer<State> updateState;
     private final Consumer<Command> postCommand;
-    private final @Nullable Consumer<String> sendCoapValue;
+    private final @Nullable BiConsumer<Command, String> sendCoapValue;
     private final ValueTransformation stateTransformations;
     private final ValueTransformation commandTransformations;
 
     protected CoAPChannelConfig channelConfig;
 
     public AbstractTransformingItemConverter(Consumer<State> updateState, Consumer<Command> postCommand,
-            @Nullable Consumer<String> sendCoapValue, ValueTransformation stateTransformations,
+            @Nullable BiConsumer<Command, String> sendCoapValue, ValueTransformation stateTransformations,
             ValueTransformation commandTransformations, CoAPChannelConfig channelConfig) {
         this.updateState = updateState;
         this.postCommand = postCommand;
@@ -52,24 +55,56 @@ public abstract class AbstractTransformingItemConverter implements ItemValueConv
     @Override
     public void process(Content content) {
         if (channelConfig.mode != CoAPChannelMode.WRITEONLY) {
-            stateTransformations.apply(content.getAsString()).ifPresent(transformedValue -> {
-                Command command = toCommand(transformedValue);
-                if (command != null) {
-                    postCommand.accept(command);
-                } else {
-                    updateState.accept(toState(transformedValue));
+            String senMLName = channelConfig.senMLName;
+            if (senMLName != null) {
+                SenMLRecord record = content.getSenMLRecords().get(senMLName);
+                if (record != null) {
+                    processDecodedValue(record.getTypedValue());
                 }
-            });
+                return;
+            }
+            if (content.isCbor()) {
+                String cborPath = channelConfig.cborPath;
+                content.getCborValue(cborPath != null ? cborPath : "").ifPresent(this::processDecodedValue);
+                return;
+            }
+            stateTransformations.apply(content.getAsString(), content.getTransformationMemo())
+                    .ifPresent(this::processValue);
         } else {
             throw new IllegalStateException("Write-only channel");
         }
     }
 
+    /**
+     * process a value decoded from a binary representation, it is only converted to text if a transformation is
+     * configured
+     */
+    private void processDecodedValue(Object value) {
+        String stateTransformation = channelConfig.stateTransformation;
+        if (stateTransformation != null && !stateTransformation.isBlank()) {
+            // transformations work on text
+            stateTransformations.apply(value instanceof String ? (String) value : CborReader.toString(value))
+                    .ifPresent(this::processValue);
+        } else {
+            processValue(value);
+        }
+    }
+
+    private void processValue(Object value) {
+        Command command = toCommand(value);
+        if (command != null) {
+            postCommand.accept(command);
+        } else {
+            updateState.accept(toState(value));
+        }
+    }
+
     @Override
     public void send(Command command) {
-        Consumer<String> sendCoapValue = this.sendCoapValue;
+        BiConsumer<Command, String> sendCoapValue = this.sendCoapValue;
         if (sendCoapValue != null && channelConfig.mode != CoAPChannelMode.READONLY) {
-            commandTransformations.apply(toString(command)).ifPresent(sendCoapValue);
+            // the command is passed along, binary content formats encode the value with the type of the command
+            commandTransformations.apply(toString(command)).ifPresent(value -> sendCoapValue.accept(command, value));
         } else {
             throw new IllegalStateException("Read-only channel");
         }
@@ -91,6 +126,26 @@ public abstract class AbstractTransformingItemConverter implements ItemValueConv
      */
     protected abstract State toState(String value);
 
+    /**
+     * check if this converter received a decoded value (e.g. from CBOR) that needs to be sent as command
+     *
+     * @param value the value (number, boolean, string, byte[], list or map)
+     * @return the command or null
+     */
+    protected @Nullable Command toCommand(Object value) {
+        return toCommand(value instanceof String ? (String) value : CborReader.toString(value));
+    }
+
+    /**
+     * convert a decoded value (e.g. from CBOR) to a state
+     *
+     * @param value the value (number, boolean, string, byte[], list or map)
+     * @return the state that represents the value of UNDEF if conversion failed
+     */
+    protected State toState(Object value) {
+        return toState(value instanceof String ? (String) value : CborReader.toString(value));
+    }
+
     /**
      * convert a command to a string
      *
@@ -102,7 +157,7 @@ public abstract class AbstractTransformingItemConverter implements ItemValueConv
     @FunctionalInterface
     public interface Factory {
         ItemValueConverter create(Consumer<State> updateState, Consumer<Command> postCommand,
-                @Nullable Consumer<String> sendCoapValue, ValueTransformation stateTransformations,
+                @Nullable BiConsumer<Command, String> sendCoapValue, ValueTransformation stateTransformations,
                 ValueTransformation commandTransformations, CoAPChannelConfig channelConfig);
     }
 }
@@ -13,6 +13,7 @@
 package org.openhab.binding.coap.internal.converter;
 
 import java.math.BigDecimal;
+import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -42,7 +43,7 @@ public class ColorItemConverter extends AbstractTransformingItemConverter {
     private State state = UnDefType.UNDEF;
 
     public ColorItemConverter(Consumer<State> updateState, Consumer<Command> postCommand,
-            @Nullable Consumer<String> sendCoapValue, ValueTransformation stateTransformations,
+            @Nullable BiConsumer<Command, String> sendCoapValue, ValueTransformation stateTransformations,
             ValueTransformation commandTransformations, CoAPChannelConfig channelConfig) {
         super(updateState, postCommand, sendCoapValue, stateTransformations, commandTransformations, channelConfig);
         this.channelConfig = channelConfig;
@@ -12,6 +12,7 @@
  */
 package org.openhab.binding.coap.internal.converter;
 
+import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 
 import org.eclipse.jdt.annotation.NonNullByDefault;
@@ -32,7 +33,7 @@ import org.openhab.core.types.UnDefType;
 public class FixedValueMappingItemConverter extends AbstractTransformingItemConverter {
 
     public FixedValueMappingItemConverter(Consumer<State> updateState, Consumer<Command> postCommand,
-            @Nullable Consumer<String> sendCoapValue, ValueTransformation stateTransformations,
+            @Nullable BiConsumer<Command, String> sendCoapValue, ValueTransformation stateTransformations,
             ValueTransformation commandTransformations, CoAPChannelConfig channelConfig) {
         super(updateState, postCommand, sendCoapValue, stateTransformations, commandTransformations, channelConfig);
     }
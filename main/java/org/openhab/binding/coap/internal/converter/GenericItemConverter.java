@@ -12,6 +12,7 @@
  */
 package org.openhab.binding.coap.internal.converter;
 
+import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 import java.util.function.Function;
 
@@ -33,7 +34,7 @@ public class GenericItemConverter extends AbstractTransformingItemConverter {
     private final Function<String, State> toState;
 
     public GenericItemConverter(Function<String, State> toState, Consumer<State> updateState,
-            Consumer<Command> postCommand, @Nullable Consumer<String> sendCoapValue,
+            Consumer<Command> postCommand, @Nullable BiConsumer<Command, String> sendCoapValue,
             ValueTransformation stateTransformations, ValueTransformation commandTransformations,
             CoAPChannelConfig channelConfig) {
         super(updateState, postCommand, sendCoapValue, stateTransformations, commandTransformations, channelConfig);
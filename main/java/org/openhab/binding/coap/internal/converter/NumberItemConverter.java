@@ -12,8 +12,13 @@
  */
 package org.openhab.binding.coap.internal.converter;
 
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 
+import javax.measure.Unit;
+
 import org.eclipse.jdt.annotation.NonNullByDefault;
 import org.eclipse.jdt.annotation.Nullable;
 import org.openhab.binding.coap.internal.config.CoAPChannelConfig;
@@ -23,6 +28,7 @@ import org.openhab.core.library.types.QuantityType;
 import org.openhab.core.types.Command;
 import org.openhab.core.types.State;
 import org.openhab.core.types.UnDefType;
+import org.openhab.core.types.util.UnitUtils;
 
 /**
  * The {@link NumberItemConverter} implements {@link org.openhab.core.library.items.NumberItem} conversions
@@ -33,7 +39,7 @@ import org.openhab.core.types.UnDefType;
 public class NumberItemConverter extends AbstractTransformingItemConverter {
 
     public NumberItemConverter(Consumer<State> updateState, Consumer<Command> postCommand,
-            @Nullable Consumer<String> sendCoapValue, ValueTransformation stateTransformations,
+            @Nullable BiConsumer<Command, String> sendCoapValue, ValueTransformation stateTransformations,
             ValueTransformation commandTransformations, CoAPChannelConfig channelConfig) {
         super(updateState, postCommand, sendCoapValue, stateTransformations, commandTransformations, channelConfig);
     }
@@ -67,6 +73,51 @@ public class NumberItemConverter extends AbstractTransformingItemConverter {
         return UnDefType.UNDEF;
     }
 
+    @Override
+    protected @Nullable Command toCommand(Object value) {
+        return null;
+    }
+
+    @Override
+    protected State toState(Object value) {
+        if (value instanceof QuantityType) {
+            // already has a unit (e.g. from SenML)
+            String unit = channelConfig.unit;
+            QuantityType<?> quantity = (QuantityType<?>) value;
+            QuantityType<?> converted = unit != null ? quantity.toUnit(unit) : quantity;
+            return converted != null ? converted : UnDefType.UNDEF;
+        }
+        if (!(value instanceof Number)) {
+            return super.toState(value);
+        }
+        BigDecimal number;
+        if (value instanceof BigDecimal) {
+            number = (BigDecimal) value;
+        } else if (value instanceof BigInteger) {
+            number = new BigDecimal((BigInteger) value);
+        } else if (value instanceof Double || value instanceof Float) {
+            double doubleValue = ((Number) value).doubleValue();
+            if (Double.isNaN(doubleValue) || Double.isInfinite(doubleValue)) {
+                return UnDefType.UNDEF;
+            }
+            // the string representation of a float is the shortest one that is decoded to the same value
+            number = new BigDecimal(value.toString());
+        } else {
+            number = BigDecimal.valueOf(((Number) value).longValue());
+        }
+        String unit = channelConfig.unit;
+        if (unit == null) {
+            return new DecimalType(number);
+        }
+        Unit<?> parsedUnit = UnitUtils.parseUnit(unit);
+        return parsedUnit != null ? toQuantity(number, parsedUnit) : UnDefType.UNDEF;
+    }
+
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    private static State toQuantity(BigDecimal value, Unit<?> unit) {
+        return new QuantityType(value, unit);
+    }
+
     @Override
     protected String toString(Command command) {
         return command.toString();
@@ -12,6 +12,7 @@
  */
 package org.openhab.binding.coap.internal.converter;
 
+import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 
 import org.eclipse.jdt.annotation.NonNullByDefault;
@@ -38,7 +39,7 @@ public class PlayerItemConverter extends AbstractTransformingItemConverter {
     private @Nullable String lastCommand; // store last command to prevent duplicate commands
 
     public PlayerItemConverter(Consumer<State> updateState, Consumer<Command> postCommand,
-            @Nullable Consumer<String> sendCoapValue, ValueTransformation stateTransformations,
+            @Nullable BiConsumer<Command, String> sendCoapValue, ValueTransformation stateTransformations,
             ValueTransformation commandTransformations, CoAPChannelConfig channelConfig) {
         super(updateState, postCommand, sendCoapValue, stateTransformations, commandTransformations, channelConfig);
         this.channelConfig = channelConfig;
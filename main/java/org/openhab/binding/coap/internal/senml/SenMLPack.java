@@ -0,0 +1,222 @@
+/**
+ * Copyright (c) 2010-2022 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.coap.internal.senml;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+import org.openhab.binding.coap.internal.cbor.CborReader;
+
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+/**
+ * The {@link SenMLPack} decodes SenML (RFC 8428) packs in JSON or CBOR representation. The base values are applied
+ * to the records, so each record can be routed by its resolved name. If a pack contains several records with the
+ * same name, the one with the latest time is kept.
+ *
+ * @author Jan N. Klug - Initial contribution
+ */
+@NonNullByDefault
+public class SenMLPack {
+    public static final String MEDIA_TYPE_JSON = "application/senml+json";
+    public static final String MEDIA_TYPE_CBOR = "application/senml+cbor";
+
+    // resolved times below 2^28 s are relative to the current time (RFC 8428, section 4.5.3)
+    private static final double RELATIVE_TIME_LIMIT = 1 << 28;
+    // the labels of the CBOR representation are integers (RFC 8428, section 6)
+    private static final Map<Long, String> CBOR_LABELS = Map.ofEntries(Map.entry(-1L, "bver"), Map.entry(-2L, "bn"),
+            Map.entry(-3L, "bt"), Map.entry(-4L, "bu"), Map.entry(-5L, "bv"), Map.entry(-6L, "bs"),
+            Map.entry(0L, "n"), Map.entry(1L, "u"), Map.entry(2L, "v"), Map.entry(3L, "vs"), Map.entry(4L, "vb"),
+            Map.entry(5L, "s"), Map.entry(6L, "t"), Map.entry(7L, "ut"), Map.entry(8L, "vd"));
+
+    private String baseName = "";
+    private BigDecimal baseTime = BigDecimal.ZERO;
+    private @Nullable String baseUnit;
+    private BigDecimal baseValue = BigDecimal.ZERO;
+    private BigDecimal baseSum = BigDecimal.ZERO;
+    private final Instant now = Instant.now();
+    private final Map<String, SenMLRecord> records = new LinkedHashMap<>();
+
+    private SenMLPack() {
+    }
+
+    /**
+     * decode a pack in JSON representation
+     *
+     * @param reader the payload
+     * @return the records by resolved name
+     * @throws IllegalArgumentException if the payload is not a valid pack
+     */
+    public static Map<String, SenMLRecord> decodeJson(Reader reader) {
+        SenMLPack pack = new SenMLPack();
+        try (JsonReader jsonReader = new JsonReader(reader)) {
+            jsonReader.beginArray();
+            while (jsonReader.hasNext()) {
+                Map<String, Object> fields = new HashMap<>();
+                jsonReader.beginObject();
+                while (jsonReader.hasNext()) {
+                    String label = jsonReader.nextName();
+                    JsonToken token = jsonReader.peek();
+                    if (token == JsonToken.NUMBER) {
+                        fields.put(label, new BigDecimal(jsonReader.nextString()));
+                    } else if (token == JsonToken.STRING) {
+                        fields.put(label, jsonReader.nextString());
+                    } else if (token == JsonToken.BOOLEAN) {
+                        fields.put(label, jsonReader.nextBoolean());
+                    } else {
+                        jsonReader.skipValue();
+                    }
+                }
+                jsonReader.endObject();
+                pack.add(fields);
+            }
+            jsonReader.endArray();
+        } catch (IOException | JsonParseException | IllegalStateException | NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid SenML pack: " + e.getMessage(), e);
+        }
+        return pack.records;
+    }
+
+    /**
+     * decode a pack in CBOR representation
+     *
+     * @param data the payload
+     * @return the records by resolved name
+     * @throws IllegalArgumentException if the payload is not a valid pack
+     */
+    public static Map<String, SenMLRecord> decodeCbor(byte[] data) {
+        SenMLPack pack = new SenMLPack();
+        Object decoded = new CborReader(data).read();
+        if (!(decoded instanceof List)) {
+            throw new IllegalArgumentException("Invalid SenML pack: not an array");
+        }
+        for (Object record : (List<?>) decoded) {
+            if (!(record instanceof Map)) {
+                throw new IllegalArgumentException("Invalid SenML pack: record is not a map");
+            }
+            Map<String, Object> fields = new HashMap<>();
+            ((Map<?, ?>) record).forEach((key, value) -> {
+                String label = key instanceof Long ? CBOR_LABELS.get(key) : String.valueOf(key);
+                if (label != null && value != null) {
+                    fields.put(label, value instanceof Number ? toBigDecimal((Number) value) : value);
+                }
+            });
+            pack.add(fields);
+        }
+        return pack.records;
+    }
+
+    private static BigDecimal toBigDecimal(Number number) {
+        if (number instanceof BigDecimal) {
+            return (BigDecimal) number;
+        } else if (number instanceof BigInteger) {
+            return new BigDecimal((BigInteger) number);
+        } else if (number instanceof Double || number instanceof Float) {
+            // the string representation of a float is the shortest one that is decoded to the same value
+            return new BigDecimal(number.toString());
+        }
+        return BigDecimal.valueOf(number.longValue());
+    }
+
+    private void add(Map<String, Object> fields) {
+        Object field = fields.get("bn");
+        if (field instanceof String) {
+            baseName = (String) field;
+        }
+        field = fields.get("bt");
+        if (field instanceof BigDecimal) {
+            baseTime = (BigDecimal) field;
+        }
+        field = fields.get("bu");
+        if (field instanceof String) {
+            baseUnit = (String) field;
+        }
+        field = fields.get("bv");
+        if (field instanceof BigDecimal) {
+            baseValue = (BigDecimal) field;
+        }
+        field = fields.get("bs");
+        if (field instanceof BigDecimal) {
+            baseSum = (BigDecimal) field;
+        }
+
+        Object value = getValue(fields);
+        if (value == null) {
+            // a record may only carry base values
+            return;
+        }
+        Object name = fields.get("n");
+        String resolvedName = baseName + (name instanceof String ? name : "");
+        if (resolvedName.isEmpty()) {
+            throw new IllegalArgumentException("Invalid SenML pack: record without name");
+        }
+        Object unit = fields.get("u");
+        Object time = fields.get("t");
+        BigDecimal resolvedTime = time instanceof BigDecimal ? baseTime.add((BigDecimal) time) : baseTime;
+
+        SenMLRecord record = new SenMLRecord(resolvedName, unit instanceof String ? (String) unit : baseUnit, value,
+                toInstant(resolvedTime));
+        SenMLRecord previous = records.get(resolvedName);
+        if (previous == null || !record.getTime().isBefore(previous.getTime())) {
+            records.put(resolvedName, record);
+        }
+    }
+
+    private @Nullable Object getValue(Map<String, Object> fields) {
+        Object field = fields.get("v");
+        if (field instanceof BigDecimal) {
+            return baseValue.add((BigDecimal) field);
+        }
+        field = fields.get("vs");
+        if (field instanceof String) {
+            return field;
+        }
+        field = fields.get("vb");
+        if (field instanceof Boolean) {
+            return field;
+        }
+        field = fields.get("vd");
+        if (field instanceof byte[]) {
+            return field;
+        } else if (field instanceof String) {
+            // the JSON representation uses base64url without padding
+            return Base64.getUrlDecoder().decode((String) field);
+        }
+        field = fields.get("s");
+        if (field instanceof BigDecimal) {
+            return baseSum.add((BigDecimal) field);
+        }
+        return null;
+    }
+
+    private Instant toInstant(BigDecimal time) {
+        long seconds = time.longValue();
+        long nanos = time.subtract(BigDecimal.valueOf(seconds)).movePointRight(9).longValue();
+        if (Math.abs(time.doubleValue()) < RELATIVE_TIME_LIMIT) {
+            return now.plusSeconds(seconds).plusNanos(nanos);
+        }
+        return Instant.ofEpochSecond(seconds, nanos);
+    }
+}
@@ -0,0 +1,104 @@
+/**
+ * Copyright (c) 2010-2022 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.coap.internal.senml;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Set;
+
+import javax.measure.Unit;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+import org.openhab.core.library.types.QuantityType;
+import org.openhab.core.types.util.UnitUtils;
+
+/**
+ * The {@link SenMLRecord} is a resolved SenML (RFC 8428) record: the base values of the pack are already applied.
+ *
+ * @author Jan N. Klug - Initial contribution
+ */
+@NonNullByDefault
+public class SenMLRecord {
+    // SenML units that are written differently in openHAB, all others are parsed as they are
+    private static final Map<String, String> UNITS = Map.of("Cel", "°C", "%RH", "%", "%EL", "%", "Ohm", "Ω", "deg",
+            "°", "ug/m3", "µg/m³", "m2", "m²", "m3", "m³", "m/s2", "m/s²");
+    // dimensionless units without an openHAB representation
+    private static final Set<String> COUNTS = Set.of("count", "/", "EL");
+
+    private final String name;
+    private final @Nullable String unit;
+    private final Object value;
+    private final Instant time;
+
+    /**
+     * create a record
+     *
+     * @param name the resolved name (base name + name)
+     * @param unit the unit (or null if none)
+     * @param value the value: {@link BigDecimal} for numeric values, {@link String}, {@link Boolean} or byte[]
+     * @param time the resolved time of the value
+     */
+    public SenMLRecord(String name, @Nullable String unit, Object value, Instant time) {
+        this.name = name;
+        this.unit = unit;
+        this.value = value;
+        this.time = time;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public @Nullable String getUnit() {
+        return unit;
+    }
+
+    public Object getValue() {
+        return value;
+    }
+
+    public Instant getTime() {
+        return time;
+    }
+
+    /**
+     * get the value for the converters, numeric values with a known unit are returned as {@link QuantityType}
+     *
+     * @return the typed value
+     */
+    public Object getTypedValue() {
+        String unit = this.unit;
+        if (!(value instanceof BigDecimal) || unit == null || unit.isEmpty() || COUNTS.contains(unit)) {
+            return value;
+        }
+        try {
+            Unit<?> parsedUnit = UnitUtils.parseUnit(UNITS.getOrDefault(unit, unit));
+            return parsedUnit != null ? toQuantity((BigDecimal) value, parsedUnit) : value;
+        } catch (IllegalArgumentException e) {
+            // unknown unit, the plain number is used
+            return value;
+        }
+    }
+
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    private static QuantityType<?> toQuantity(BigDecimal value, Unit<?> unit) {
+        return new QuantityType(value, unit);
+    }
+
+    @Override
+    public String toString() {
+        return "SenMLRecord{name='" + name + "', unit='" + unit + "', value=" + value + ", time=" + time + "}";
+    }
+}
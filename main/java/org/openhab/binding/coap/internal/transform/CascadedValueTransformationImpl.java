@@ -12,6 +12,7 @@
  */
 package org.openhab.binding.coap.internal.transform;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
@@ -34,14 +35,21 @@ import org.slf4j.LoggerFactory;
 public class CascadedValueTransformationImpl implements ValueTransformation {
     private final Logger logger = LoggerFactory.getLogger(CascadedValueTransformationImpl.class);
     private final List<ValueTransformation> transformations;
+    // the patterns of the leading steps up to each transformation, the keys for the memo
+    private final List<String> chains = new ArrayList<>();
 
     public CascadedValueTransformationImpl(String transformationString,
             Function<String, @Nullable TransformationService> transformationServiceSupplier) {
         List<ValueTransformation> transformations;
+        List<String> patterns = Arrays.stream(transformationString.split("∩")).filter(s -> !s.isEmpty())
+                .collect(Collectors.toList());
         try {
-            transformations = Arrays.stream(transformationString.split("∩")).filter(s -> !s.isEmpty())
+            transformations = patterns.stream()
                     .map(transformation -> new SingleValueTransformation(transformation, transformationServiceSupplier))
                     .collect(Collectors.toList());
+            for (int i = 0; i < patterns.size(); i++) {
+                chains.add(String.join("∩", patterns.subList(0, i + 1)));
+            }
         } catch (IllegalArgumentException e) {
             transformations = List.of(NoOpValueTransformation.getInstance());
             logger.warn("Transformation ignore, failed to parse {}: {}", transformationString, e.getMessage());
@@ -60,4 +68,22 @@ public class CascadedValueTransformationImpl implements ValueTransformation {
 
         return valueOptional;
     }
+
+    @Override
+    public Optional<String> apply(String value, TransformationMemo memo) {
+        if (chains.size() != transformations.size()) {
+            // the pattern could not be parsed
+            return apply(value);
+        }
+        Optional<String> valueOptional = Optional.of(value);
+
+        // all calls with the same memo have the same input, so the leading steps identify the intermediate result
+        for (int i = 0; i < transformations.size() && valueOptional.isPresent(); i++) {
+            ValueTransformation transformation = transformations.get(i);
+            String input = valueOptional.get();
+            valueOptional = memo.computeIfAbsent(chains.get(i), () -> transformation.apply(input));
+        }
+
+        return valueOptional;
+    }
 }
@@ -0,0 +1,211 @@
+/**
+ * Copyright (c) 2010-2022 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.coap.internal.transform;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+/**
+ * The {@link JsonPathExtractor} extracts the values of several JSONPath expressions in a single streaming pass over a
+ * payload. The expressions are compiled into a trie, subtrees that no expression selects are skipped without being
+ * parsed. Only definite paths (member names and array indices) are supported, other expressions are left to the
+ * JSONPATH transformation service.
+ *
+ * Only string and boolean values are extracted, they are rendered exactly like the JSONPATH service renders them.
+ * Numbers, objects and arrays are left to the service, which formats them differently from the payload.
+ *
+ * @author Jan N. Klug - Initial contribution
+ */
+@NonNullByDefault
+public class JsonPathExtractor {
+    private static final String SERVICE_PREFIX = "JSONPATH:";
+
+    private final Node root = new Node();
+    private volatile boolean empty = true;
+
+    /**
+     * add the leading step of a transformation
+     *
+     * @param transformation the transformation pattern (steps separated by ∩)
+     * @return true if the leading step is a JSONPath expression supported by the extractor
+     */
+    public boolean add(String transformation) {
+        String step = transformation.split("∩")[0];
+        if (!step.regionMatches(true, 0, SERVICE_PREFIX, 0, SERVICE_PREFIX.length())) {
+            return false;
+        }
+        List<Object> segments = parsePath(step.substring(SERVICE_PREFIX.length()).trim());
+        if (segments == null) {
+            return false;
+        }
+        synchronized (root) {
+            Node node = root;
+            for (Object segment : segments) {
+                node = segment instanceof Integer ? node.indices.computeIfAbsent((Integer) segment, i -> new Node())
+                        : node.members.computeIfAbsent((String) segment, m -> new Node());
+            }
+            // the memo of the cascaded transformation is keyed by the pattern of the step
+            if (!node.keys.contains(step)) {
+                node.keys.add(step);
+            }
+            empty = false;
+        }
+        return true;
+    }
+
+    public boolean isEmpty() {
+        return empty;
+    }
+
+    /**
+     * extract the values of all expressions
+     *
+     * expressions selecting a missing or null value, a number, an object or an array have no result
+     *
+     * @param reader the payload
+     * @return the results by transformation step
+     * @throws IOException if the payload is not valid JSON
+     */
+    public Map<String, String> extract(Reader reader) throws IOException {
+        Map<String, String> results = new HashMap<>();
+        JsonReader jsonReader = new JsonReader(reader);
+        jsonReader.setLenient(true);
+        try {
+            synchronized (root) {
+                extract(jsonReader, root, results);
+            }
+        } catch (IllegalStateException | NumberFormatException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+        return results;
+    }
+
+    private void extract(JsonReader reader, Node node, Map<String, String> results) throws IOException {
+        JsonToken token = reader.peek();
+        if (!node.keys.isEmpty()) {
+            if (token == JsonToken.STRING || token == JsonToken.BOOLEAN) {
+                String value = token == JsonToken.STRING ? reader.nextString() : String.valueOf(reader.nextBoolean());
+                node.keys.forEach(key -> results.put(key, value));
+                return;
+            } else if (token != JsonToken.BEGIN_OBJECT && token != JsonToken.BEGIN_ARRAY) {
+                // numbers are formatted by the JSONPATH service, null has no result
+                reader.skipValue();
+                return;
+            }
+            // objects and arrays are serialized by the JSONPATH service, only nested expressions are extracted
+        }
+        if (token == JsonToken.BEGIN_OBJECT && !node.members.isEmpty()) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                Node child = node.members.get(reader.nextName());
+                if (child != null) {
+                    extract(reader, child, results);
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } else if (token == JsonToken.BEGIN_ARRAY && !node.indices.isEmpty()) {
+            reader.beginArray();
+            int index = 0;
+            while (reader.hasNext()) {
+                Node child = node.indices.get(index++);
+                if (child != null) {
+                    extract(reader, child, results);
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endArray();
+        } else {
+            reader.skipValue();
+        }
+    }
+
+    /**
+     * parse a definite JSONPath expression like $.a['b'][0]
+     *
+     * @param expression the expression
+     * @return the member names and array indices or null if the expression is not supported
+     */
+    public static @Nullable List<Object> parsePath(String expression) {
+        if (!expression.startsWith("$")) {
+            return null;
+        }
+        List<Object> segments = new ArrayList<>();
+        int pos = 1;
+        while (pos < expression.length()) {
+            char c = expression.charAt(pos);
+            if (c == '.') {
+                int end = pos + 1;
+                while (end < expression.length() && expression.charAt(end) != '.' && expression.charAt(end) != '[') {
+                    end++;
+                }
+                String name = expression.substring(pos + 1, end);
+                if (name.isEmpty() || "*".equals(name)) {
+                    // deep scan or wildcard
+                    return null;
+                }
+                segments.add(name);
+                pos = end;
+            } else if (c == '[') {
+                int end = expression.indexOf(']', pos);
+                if (end == -1) {
+                    return null;
+                }
+                String selector = expression.substring(pos + 1, end).trim();
+                if (selector.length() >= 2 && (selector.charAt(0) == '\'' || selector.charAt(0) == '"')
+                        && selector.charAt(selector.length() - 1) == selector.charAt(0)) {
+                    String name = selector.substring(1, selector.length() - 1);
+                    if (name.indexOf('\'') != -1 || name.indexOf('"') != -1) {
+                        // unions of several members
+                        return null;
+                    }
+                    segments.add(name);
+                } else {
+                    try {
+                        int index = Integer.parseInt(selector);
+                        if (index < 0) {
+                            // counted from the end, the length is not known while streaming
+                            return null;
+                        }
+                        segments.add(index);
+                    } catch (NumberFormatException e) {
+                        // filters, slices and wildcards
+                        return null;
+                    }
+                }
+                pos = end + 1;
+            } else {
+                return null;
+            }
+        }
+        return segments;
+    }
+
+    private static class Node {
+        private final Map<String, Node> members = new HashMap<>();
+        private final Map<Integer, Node> indices = new HashMap<>();
+        private final List<String> keys = new ArrayList<>();
+    }
+}
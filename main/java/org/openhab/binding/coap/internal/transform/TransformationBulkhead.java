@@ -0,0 +1,298 @@
+/**
+ * Copyright (c) 2010-2022 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.coap.internal.transform;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+import org.openhab.binding.coap.internal.coap.TimingWheel;
+import org.openhab.core.common.NamedThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The {@link TransformationBulkhead} runs the state transformations of all things in a bounded pool, separated from
+ * the threads handling the network. Each thing may only use a limited number of threads. Every invocation has a time
+ * budget, a transformation exceeding it repeatedly is quarantined for some time. Time spent waiting for a result that
+ * another invocation computes for the {@link TransformationMemo} is not counted against the budget.
+ *
+ * @author Jan N. Klug - Initial contribution
+ */
+@NonNullByDefault
+public class TransformationBulkhead {
+    // consecutive invocations over budget before a transformation is quarantined
+    private static final int MAX_OVERRUNS = 3;
+    private static final long QUARANTINE_TIME = TimeUnit.MINUTES.toNanos(5);
+    // the invocation running in the current thread
+    private static final ThreadLocal<@Nullable Invocation> CURRENT = new ThreadLocal<>();
+
+    private final Logger logger = LoggerFactory.getLogger(TransformationBulkhead.class);
+    private final ThreadPoolExecutor executor;
+    private final TimingWheel timer;
+    private final long budget; // in ms
+    private final int concurrencyPerScope;
+    private final Map<String, Health> health = new ConcurrentHashMap<>();
+
+    /**
+     * create a new bulkhead
+     *
+     * @param threads number of threads for all transformations
+     * @param queueSize maximum number of waiting invocations
+     * @param timer the timer for the time budget
+     * @param budget the time budget of an invocation in ms
+     * @param concurrencyPerScope maximum number of concurrent invocations per thing
+     */
+    public TransformationBulkhead(int threads, int queueSize, TimingWheel timer, long budget,
+            int concurrencyPerScope) {
+        this.executor = new ThreadPoolExecutor(Math.max(1, threads), Math.max(1, threads), 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, queueSize)), new NamedThreadFactory("coap-transformation"));
+        this.timer = timer;
+        this.budget = budget;
+        this.concurrencyPerScope = Math.max(1, concurrencyPerScope);
+    }
+
+    /**
+     * create the scope of a thing
+     *
+     * @return a new scope
+     */
+    public Scope createScope() {
+        return new Scope();
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * mark the invocation running in this thread as waiting for a result computed by another invocation, the time
+     * until {@link #endWait()} is not counted against its budget
+     *
+     * @return the maximum time to wait in ms (the budget of the invocation), -1 if no invocation runs in this thread
+     */
+    static long beginWait() {
+        Invocation invocation = CURRENT.get();
+        if (invocation == null) {
+            return -1;
+        }
+        synchronized (invocation) {
+            invocation.waitingSince = System.nanoTime();
+        }
+        return invocation.budget;
+    }
+
+    /**
+     * end the wait started with {@link #beginWait()}
+     */
+    static void endWait() {
+        Invocation invocation = CURRENT.get();
+        if (invocation != null) {
+            synchronized (invocation) {
+                invocation.deadline += System.nanoTime() - invocation.waitingSince;
+                invocation.waitingSince = 0;
+            }
+        }
+    }
+
+    private boolean isQuarantined(String transformation) {
+        Health health = this.health.get(transformation);
+        return health != null && health.isQuarantined();
+    }
+
+    /**
+     * The invocations of a thing. Only one invocation per channel runs at a time, a newer invocation for the same
+     * channel replaces a waiting one.
+     */
+    public class Scope {
+        private final Set<String> active = new HashSet<>();
+        private final Map<String, Invocation> pending = new LinkedHashMap<>();
+        private boolean closed = false;
+
+        /**
+         * submit an invocation
+         *
+         * @param channel the channel, only the latest invocation per channel is kept while waiting
+         * @param transformation the transformation pattern (for the time budget and quarantine)
+         * @param task the invocation
+         */
+        public void submit(String channel, String transformation, Runnable task) {
+            if (isQuarantined(transformation)) {
+                logger.trace("Transformation '{}' is quarantined, dropping value for {}", transformation, channel);
+                return;
+            }
+            Invocation invocation = new Invocation(channel, transformation, budget, task);
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                if (active.contains(channel) || active.size() >= concurrencyPerScope) {
+                    pending.put(channel, invocation);
+                    return;
+                }
+                active.add(channel);
+            }
+            start(invocation);
+        }
+
+        /**
+         * drop waiting invocations, running ones are interrupted if they exceed their budget
+         */
+        public synchronized void close() {
+            closed = true;
+            pending.clear();
+        }
+
+        private void start(Invocation invocation) {
+            try {
+                executor.execute(() -> run(invocation));
+            } catch (RejectedExecutionException e) {
+                logger.debug("Transformation queue is full, dropping value for {}", invocation.channel);
+                finish(invocation);
+            }
+        }
+
+        private void run(Invocation invocation) {
+            // the budget starts when the invocation runs, the time waiting in the queue is not counted
+            synchronized (invocation) {
+                invocation.deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(budget);
+            }
+            watch(invocation, Thread.currentThread(), budget);
+            CURRENT.set(invocation);
+            try {
+                invocation.task.run();
+            } catch (RuntimeException e) {
+                logger.warn("Transformation '{}' for {} failed: {}", invocation.transformation, invocation.channel,
+                        e.getMessage());
+            } finally {
+                CURRENT.remove();
+                boolean withinBudget;
+                synchronized (invocation) {
+                    invocation.done = true;
+                    TimingWheel.Timeout watchdog = invocation.watchdog;
+                    if (watchdog != null) {
+                        watchdog.cancel();
+                    }
+                    withinBudget = invocation.deadline - System.nanoTime() > 0;
+                }
+                // clear an interrupt of the watchdog, the thread is reused
+                Thread.interrupted();
+                if (withinBudget) {
+                    health.remove(invocation.transformation);
+                }
+                finish(invocation);
+            }
+        }
+
+        private void watch(Invocation invocation, Thread thread, long delay) {
+            synchronized (invocation) {
+                invocation.watchdog = timer.schedule(() -> {
+                    synchronized (invocation) {
+                        if (invocation.done) {
+                            return;
+                        }
+                        long remaining = invocation.deadline - System.nanoTime();
+                        if (invocation.waitingSince != 0 || remaining > 0) {
+                            // the deadline was moved by the time waiting for another invocation, check again later
+                            watch(invocation, thread, invocation.waitingSince != 0 ? budget
+                                    : Math.max(1, TimeUnit.NANOSECONDS.toMillis(remaining)));
+                            return;
+                        }
+                        overrun(invocation.transformation);
+                        thread.interrupt();
+                    }
+                }, delay, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        private void finish(Invocation invocation) {
+            Invocation next = null;
+            synchronized (this) {
+                active.remove(invocation.channel);
+                if (!closed) {
+                    for (Invocation candidate : pending.values()) {
+                        if (!active.contains(candidate.channel)) {
+                            next = candidate;
+                            break;
+                        }
+                    }
+                    if (next != null) {
+                        pending.remove(next.channel);
+                        active.add(next.channel);
+                    }
+                }
+            }
+            if (next != null) {
+                start(next);
+            }
+        }
+    }
+
+    private void overrun(String transformation) {
+        Health health = this.health.computeIfAbsent(transformation, t -> new Health());
+        if (health.overrun()) {
+            logger.warn("Transformation '{}' exceeded its time budget of {}ms {} times, quarantined for {} minutes",
+                    transformation, budget, MAX_OVERRUNS, TimeUnit.NANOSECONDS.toMinutes(QUARANTINE_TIME));
+        }
+    }
+
+    private static class Invocation {
+        private final String channel;
+        private final String transformation;
+        private final long budget; // in ms
+        private final Runnable task;
+        private boolean done = false;
+        private long deadline = 0; // System.nanoTime(), moved by the time waiting for other invocations
+        private long waitingSince = 0; // System.nanoTime(), 0 if not waiting
+        private TimingWheel.@Nullable Timeout watchdog;
+
+        public Invocation(String channel, String transformation, long budget, Runnable task) {
+            this.channel = channel;
+            this.transformation = transformation;
+            this.budget = budget;
+            this.task = task;
+        }
+    }
+
+    private static class Health {
+        private int overruns = 0;
+        private long quarantinedUntil = 0;
+
+        /**
+         * count an overrun
+         *
+         * @return true if the transformation was quarantined
+         */
+        public synchronized boolean overrun() {
+            overruns++;
+            if (overruns >= MAX_OVERRUNS) {
+                overruns = 0;
+                quarantinedUntil = System.nanoTime() + QUARANTINE_TIME;
+                return true;
+            }
+            return false;
+        }
+
+        public synchronized boolean isQuarantined() {
+            return quarantinedUntil != 0 && quarantinedUntil - System.nanoTime() > 0;
+        }
+    }
+}
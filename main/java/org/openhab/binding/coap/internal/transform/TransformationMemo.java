@@ -0,0 +1,104 @@
+/**
+ * Copyright (c) 2010-2022 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.coap.internal.transform;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The {@link TransformationMemo} keeps the results of transformation chains applied to one payload. Channels sharing
+ * the leading steps of their transformation reuse the intermediate results instead of running them again. A memo
+ * belongs to a single payload and is dropped with it.
+ *
+ * @author Jan N. Klug - Initial contribution
+ */
+@NonNullByDefault
+public class TransformationMemo {
+    // maximum wait for the result of another thread if the caller does not run in the transformation bulkhead
+    private static final long DEFAULT_WAIT = 5000; // in ms
+
+    private final Logger logger = LoggerFactory.getLogger(TransformationMemo.class);
+    private final Map<String, CompletableFuture<Optional<String>>> results = new ConcurrentHashMap<>();
+
+    /**
+     * get the result of a chain or compute it
+     *
+     * concurrent calls for the same chain wait for the first one instead of computing it again. The transformation
+     * runs outside the map, so other chains are not blocked while it is running. The wait is limited to the time
+     * budget of the {@link TransformationBulkhead} and is not counted against the budget of the waiting invocation.
+     *
+     * A computation that fails or is interrupted (e.g. because it exceeded its budget) is not kept, the waiting calls
+     * fail and the next call computes the chain again.
+     *
+     * @param chain the transformation steps applied to the payload
+     * @param transformation computes the result of the chain
+     * @return the result, empty if the waiting thread was interrupted or the first call did not finish in time
+     */
+    public Optional<String> computeIfAbsent(String chain, Supplier<Optional<String>> transformation) {
+        CompletableFuture<Optional<String>> placeholder = new CompletableFuture<>();
+        CompletableFuture<Optional<String>> result = results.putIfAbsent(chain, placeholder);
+        if (result == null) {
+            try {
+                Optional<String> value = transformation.get();
+                if (!Thread.currentThread().isInterrupted()) {
+                    // an interrupted transformation may return a partial or empty result, it is not shared
+                    placeholder.complete(value);
+                }
+                return value;
+            } finally {
+                if (!placeholder.isDone()) {
+                    // the transformation failed or was interrupted, waiting calls fail and the next call computes
+                    // it again
+                    results.remove(chain, placeholder);
+                    placeholder.completeExceptionally(
+                            new IllegalStateException("Transformation failed or timed out: " + chain));
+                }
+            }
+        }
+        long timeout = TransformationBulkhead.beginWait();
+        try {
+            return result.get(timeout >= 0 ? timeout : DEFAULT_WAIT, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Optional.empty();
+        } catch (TimeoutException e) {
+            logger.debug("Transformation '{}' running in another thread did not finish in time", chain);
+            return Optional.empty();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof RuntimeException ? (RuntimeException) cause : new IllegalStateException(cause);
+        } finally {
+            TransformationBulkhead.endWait();
+        }
+    }
+
+    /**
+     * add a result computed in advance, e.g. by the {@link JsonPathExtractor}
+     *
+     * @param chain the transformation steps applied to the payload
+     * @param result the result
+     */
+    public void put(String chain, String result) {
+        results.putIfAbsent(chain, CompletableFuture.completedFuture(Optional.of(result)));
+    }
+}
@@ -31,4 +31,15 @@ public interface ValueTransformation {
      * @return Optional of string representing the transformed value (empty if transformation not present or failed)
      */
     Optional<String> apply(String value);
+
+    /**
+     * applies the value transformation to the payload of a response, reusing results of other channels
+     *
+     * @param value The value, the same for all calls with this memo
+     * @param memo the results of transformations of the payload
+     * @return Optional of string representing the transformed value (empty if transformation not present or failed)
+     */
+    default Optional<String> apply(String value, TransformationMemo memo) {
+        return apply(value);
+    }
 }
@@ -0,0 +1,168 @@
+/**
+ * Copyright (c) 2010-2022 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.coap.internal.cbor;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+import org.junit.jupiter.api.Test;
+
+/**
+ * The {@link CborReaderTest} tests the {@link CborReader} with the examples of RFC 8949, appendix A
+ *
+ * @author Jan N. Klug - Initial contribution
+ */
+@NonNullByDefault
+public class CborReaderTest {
+
+    @Test
+    public void readsIntegers() {
+        assertEquals(0L, read("00"));
+        assertEquals(23L, read("17"));
+        assertEquals(24L, read("1818"));
+        assertEquals(1000L, read("1903e8"));
+        assertEquals(1000000000000L, read("1b000000e8d4a51000"));
+        assertEquals(new BigInteger("18446744073709551615"), read("1bffffffffffffffff"));
+        assertEquals(-1L, read("20"));
+        assertEquals(-100L, read("3863"));
+        assertEquals(new BigInteger("-18446744073709551616"), read("3bffffffffffffffff"));
+    }
+
+    @Test
+    public void readsBignumsAndDecimalFractions() {
+        assertEquals(new BigInteger("18446744073709551616"), read("c249010000000000000000"));
+        assertEquals(new BigInteger("-18446744073709551617"), read("c349010000000000000000"));
+        assertEquals(new BigDecimal("273.15"), read("c48221196ab3"));
+    }
+
+    @Test
+    public void readsFloats() {
+        assertEquals(0.0f, read("f90000"));
+        assertEquals(1.0f, read("f93c00"));
+        assertEquals(65504.0f, read("f97bff"));
+        assertEquals(-4.0f, read("f9c400"));
+        assertEquals(100000.0f, read("fa47c35000"));
+        assertEquals(1.1, read("fb3ff199999999999a"));
+    }
+
+    @Test
+    public void readsSimpleValues() {
+        assertEquals(false, read("f4"));
+        assertEquals(true, read("f5"));
+        assertNull(read("f6"));
+        assertNull(read("f7"));
+    }
+
+    @Test
+    public void readsStrings() {
+        assertEquals("", read("60"));
+        assertEquals("IETF", read("6449455446"));
+        assertEquals("ü", read("62c3bc"));
+        assertArrayEquals(new byte[] { 1, 2, 3, 4 }, (byte[]) read("4401020304"));
+        assertEquals("streaming", read("7f657374726561646d696e67ff"));
+        assertArrayEquals(new byte[] { 1, 2, 3, 4, 5 }, (byte[]) read("5f42010243030405ff"));
+    }
+
+    @Test
+    public void readsArraysAndMaps() {
+        assertEquals(List.of(1L, 2L, 3L), read("83010203"));
+        assertEquals(List.of(1L, List.of(2L, 3L), List.of(4L, 5L)), read("9f018202039f0405ffff"));
+        assertEquals(Map.of(1L, 2L, 3L, 4L), read("a201020304"));
+        assertEquals(Map.of("a", 1L, "b", List.of(2L, 3L)), read("a26161016162820203"));
+        assertEquals(Map.of("Fun", true, "Amt", -2L), read("bf6346756ef563416d7421ff"));
+    }
+
+    @Test
+    public void readsSequence() {
+        CborReader reader = new CborReader(hex("0102"));
+        assertEquals(1L, reader.read());
+        assertTrue(reader.hasNext());
+        assertEquals(2L, reader.read());
+        assertFalse(reader.hasNext());
+    }
+
+    @Test
+    public void selectsNestedItems() {
+        // {"a": [10, {"b": "x"}], 1: "one"}
+        byte[] data = hex("a2616182 0a a1616261 78 01 636f6e65".replace(" ", ""));
+        CborReader reader = new CborReader(data);
+        assertTrue(reader.select(List.of("a", 1, "b")));
+        assertEquals("x", reader.read());
+
+        reader = new CborReader(data);
+        assertTrue(reader.select(List.of(1)));
+        assertEquals("one", reader.read());
+
+        assertFalse(new CborReader(data).select(List.of("c")));
+        assertFalse(new CborReader(data).select(List.of("a", 2)));
+        assertFalse(new CborReader(data).select(List.of("a", 0, "b")));
+    }
+
+    @Test
+    public void selectsInIndefiniteLengthItems() {
+        // [_ 1, {_ "k": "v"}]
+        CborReader reader = new CborReader(hex("9f01bf616b6176ffff"));
+        assertTrue(reader.select(List.of(1, "k")));
+        assertEquals("v", reader.read());
+        assertFalse(new CborReader(hex("9f01bf616b6176ffff")).select(List.of(2)));
+    }
+
+    @Test
+    public void skipsItems() {
+        CborReader reader = new CborReader(hex("a26161016162820203" + "f5"));
+        reader.skip();
+        assertEquals(true, reader.read());
+    }
+
+    @Test
+    public void rejectsInvalidData() {
+        assertThrows(IllegalArgumentException.class, () -> read(""));
+        assertThrows(IllegalArgumentException.class, () -> read("1903"));
+        assertThrows(IllegalArgumentException.class, () -> read("6449"));
+        assertThrows(IllegalArgumentException.class, () -> read("830102"));
+        assertThrows(IllegalArgumentException.class, () -> read("1c"));
+        assertThrows(IllegalArgumentException.class, () -> read("7f61617f6162ffff"));
+        assertThrows(IllegalArgumentException.class, () -> read("81".repeat(64) + "00"));
+    }
+
+    @Test
+    public void convertsToText() {
+        assertEquals("21.5", CborReader.toString(21.5f));
+        assertEquals("x", CborReader.toString("x"));
+        assertEquals("0102", CborReader.toString(new byte[] { 1, 2 }));
+        assertEquals("{\"a\":[1,\"x\"],\"1\":null}", CborReader.toString(read("a2616182016178 01f6".replace(" ", ""))));
+    }
+
+    private static @Nullable Object read(String hex) {
+        return new CborReader(hex(hex)).read();
+    }
+
+    static byte[] hex(String hex) {
+        byte[] data = new byte[hex.length() / 2];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        return data;
+    }
+}
@@ -0,0 +1,120 @@
+/**
+ * Copyright (c) 2010-2022 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.coap.internal.cbor;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.openhab.binding.coap.internal.cbor.CborReaderTest.hex;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.junit.jupiter.api.Test;
+import org.openhab.core.library.types.DecimalType;
+import org.openhab.core.library.types.OnOffType;
+import org.openhab.core.library.types.OpenClosedType;
+import org.openhab.core.library.types.PercentType;
+import org.openhab.core.library.types.QuantityType;
+import org.openhab.core.library.types.StringType;
+import org.openhab.core.library.types.UpDownType;
+
+/**
+ * The {@link CborWriterTest} tests the {@link CborWriter}
+ *
+ * @author Jan N. Klug - Initial contribution
+ */
+@NonNullByDefault
+public class CborWriterTest {
+
+    @Test
+    public void encodesIntegers() {
+        assertArrayEquals(hex("00"), CborWriter.encode(0));
+        assertArrayEquals(hex("17"), CborWriter.encode(23L));
+        assertArrayEquals(hex("1818"), CborWriter.encode(24));
+        assertArrayEquals(hex("1903e8"), CborWriter.encode(1000));
+        assertArrayEquals(hex("1a000f4240"), CborWriter.encode(1000000));
+        assertArrayEquals(hex("1b000000e8d4a51000"), CborWriter.encode(1000000000000L));
+        assertArrayEquals(hex("20"), CborWriter.encode(-1));
+        assertArrayEquals(hex("3863"), CborWriter.encode(-100));
+        assertArrayEquals(hex("c249010000000000000000"), CborWriter.encode(new BigInteger("18446744073709551616")));
+        assertArrayEquals(hex("c349010000000000000000"), CborWriter.encode(new BigInteger("-18446744073709551617")));
+    }
+
+    @Test
+    public void encodesDecimalsWithTheShortestLosslessType() {
+        assertArrayEquals(hex("0a"), CborWriter.encode(new BigDecimal("10.00")));
+        assertArrayEquals(hex("fa3fc00000"), CborWriter.encode(new BigDecimal("1.5")));
+        assertArrayEquals(hex("fb3ff199999999999a"), CborWriter.encode(new BigDecimal("1.1")));
+        assertArrayEquals(hex("fa47c35000"), CborWriter.encode(100000.0f));
+        assertArrayEquals(hex("fb3ff199999999999a"), CborWriter.encode(1.1));
+    }
+
+    @Test
+    public void encodesOtherTypes() {
+        assertArrayEquals(hex("f6"), CborWriter.encode(null));
+        assertArrayEquals(hex("f4"), CborWriter.encode(false));
+        assertArrayEquals(hex("f5"), CborWriter.encode(true));
+        assertArrayEquals(hex("6449455446"), CborWriter.encode("IETF"));
+        assertArrayEquals(hex("4401020304"), CborWriter.encode(new byte[] { 1, 2, 3, 4 }));
+        assertArrayEquals(hex("83010203"), CborWriter.encode(List.of(1, 2, 3)));
+        Map<Object, Object> map = new LinkedHashMap<>();
+        map.put("a", 1);
+        map.put("b", List.of(2, 3));
+        assertArrayEquals(hex("a26161016162820203"), CborWriter.encode(map));
+    }
+
+    @Test
+    public void encodesCommandsWithTheirType() {
+        // the mapped values of the converter do not change the type
+        assertArrayEquals(hex("f5"), CborWriter.encodeCommand(OnOffType.ON, "1"));
+        assertArrayEquals(hex("f4"), CborWriter.encodeCommand(OnOffType.OFF, "0"));
+        assertArrayEquals(hex("f5"), CborWriter.encodeCommand(OpenClosedType.OPEN, "open"));
+        assertArrayEquals(hex("f4"), CborWriter.encodeCommand(OpenClosedType.CLOSED, "closed"));
+
+        assertArrayEquals(hex("1818"), CborWriter.encodeCommand(new DecimalType(24), "24"));
+        assertArrayEquals(hex("fa41ac0000"), CborWriter.encodeCommand(new DecimalType("21.5"), " 21.5 "));
+        assertArrayEquals(hex("1864"), CborWriter.encodeCommand(new PercentType(100), "100"));
+        assertArrayEquals(hex("fa41ac0000"), CborWriter.encodeCommand(new QuantityType<>("21.5 °C"), "21.5 °C"));
+        assertArrayEquals(hex("16"), CborWriter.encodeCommand(new QuantityType<>("71.6 °F"), "22"));
+
+        // strings are text even if they look like numbers or booleans
+        assertArrayEquals(hex("623234"), CborWriter.encodeCommand(new StringType("24"), "24"));
+        assertArrayEquals(hex("6474727565"), CborWriter.encodeCommand(new StringType("true"), "true"));
+        assertArrayEquals(hex("625550"), CborWriter.encodeCommand(UpDownType.UP, "UP"));
+    }
+
+    @Test
+    public void encodesTransformedNumbersThatAreNoNumberAsText() {
+        assertArrayEquals(hex("63312d32"), CborWriter.encodeCommand(new DecimalType(12), "1-2"));
+        assertArrayEquals(hex("687b2276223a31327d"), CborWriter.encodeCommand(new DecimalType(12), "{\"v\":12}"));
+    }
+
+    @Test
+    public void roundTripsThroughTheReader() {
+        Map<Object, Object> map = new LinkedHashMap<>();
+        map.put(1L, "one");
+        map.put("list", List.of(-5L, 2.5f, false));
+        map.put("big", new BigInteger("-18446744073709551617"));
+        assertEquals(map, new CborReader(CborWriter.encode(map)).read());
+    }
+
+    @Test
+    public void rejectsUnsupportedTypes() {
+        assertThrows(IllegalArgumentException.class, () -> CborWriter.encode(new Object()));
+    }
+}
@@ -0,0 +1,164 @@
+/**
+ * Copyright (c) 2010-2022 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.coap.internal.coap;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.californium.core.CoapClient;
+import org.eclipse.californium.core.CoapHandler;
+import org.eclipse.californium.core.CoapResponse;
+import org.eclipse.californium.core.coap.CoAP;
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.core.coap.Response;
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * The {@link Block2TransferTest} tests the assembly of block-wise transfers and the checks that abort them. The
+ * requests are not sent, the test answers them.
+ *
+ * @author Jan N. Klug - Initial contribution
+ */
+@NonNullByDefault
+public class Block2TransferTest {
+    private static final byte[] ETAG = new byte[] { 1, 2, 3 };
+
+    private final List<Request> sent = new ArrayList<>();
+    private final CongestionController congestionController = new CongestionController(1, Runnable::run) {
+        @Override
+        public void send(String host, CoapClient coapClient, Request request, CoapHandler handler,
+                RequestPriority priority) {
+            sent.add(request);
+        }
+    };
+    private final TimingWheel timer = new TimingWheel(Runnable::run, 10, TimeUnit.MILLISECONDS, 8);
+    private final CompletableFuture<@Nullable Content> future = new CompletableFuture<>();
+
+    @AfterEach
+    public void tearDown() {
+        timer.stop();
+    }
+
+    @Test
+    public void assemblesTheBlocks() {
+        Block2Transfer transfer = start(1, 16);
+        assertEquals(1, sent.size());
+        assertEquals(0, sent.get(0).getOptions().getBlock2().getNum());
+
+        transfer.onLoad(block(0, true, ETAG, 16));
+        assertEquals(2, sent.size());
+        assertEquals(1, sent.get(1).getOptions().getBlock2().getNum());
+        assertEquals(0, sent.get(1).getOptions().getETagCount());
+
+        transfer.onLoad(block(1, false, ETAG, 5));
+        Content content = future.getNow(null);
+        assertNotNull(content);
+        assertEquals(21, content.getRawContent().length);
+        assertEquals((byte) 20, content.getRawContent()[20]);
+        assertArrayEquals(ETAG, content.getETag());
+    }
+
+    @Test
+    public void abortsOnAnUnexpectedOffset() {
+        Block2Transfer transfer = start(1, 16);
+        transfer.onLoad(block(0, true, ETAG, 16));
+        transfer.onLoad(block(2, false, ETAG, 16));
+        assertAbortedAfter(2);
+    }
+
+    @Test
+    public void abortsWhenTheEtagChanges() {
+        Block2Transfer transfer = start(1, 16);
+        transfer.onLoad(block(0, true, ETAG, 16));
+        transfer.onLoad(block(1, false, new byte[] { 4 }, 16));
+        assertAbortedAfter(2);
+    }
+
+    @Test
+    public void abortsWhenTheEtagIsDropped() {
+        Block2Transfer transfer = start(1, 16);
+        transfer.onLoad(block(0, true, ETAG, 16));
+        transfer.onLoad(block(1, false, null, 16));
+        assertAbortedAfter(2);
+    }
+
+    @Test
+    public void abortsWhenTheAnnouncedSizeExceedsTheBuffer() {
+        Block2Transfer transfer = start(1, 16);
+        CoapResponse first = block(0, true, ETAG, 16);
+        first.getOptions().setSize2(1025);
+        transfer.onLoad(first);
+        assertAbortedAfter(1);
+    }
+
+    @Test
+    public void abortsWhenTheReceivedSizeExceedsTheBuffer() {
+        Block2Transfer transfer = start(1, 1024);
+        transfer.onLoad(block(0, true, ETAG, 1024));
+        assertEquals(2, sent.size());
+        transfer.onLoad(block(1, false, ETAG, 1));
+        assertAbortedAfter(2);
+    }
+
+    @Test
+    public void ignoresBlocksAfterCancel() {
+        Block2Transfer transfer = start(1, 16);
+        transfer.onLoad(block(0, true, ETAG, 16));
+        transfer.cancel();
+        assertTrue(sent.get(1).isCanceled());
+        transfer.onLoad(block(1, true, ETAG, 16));
+        assertAbortedAfter(2);
+    }
+
+    private Block2Transfer start(int bufferSize, int blockSize) {
+        URI uri = URI.create("coap://localhost/resource");
+        Block2Transfer transfer = new Block2Transfer(new CoapClient(), congestionController, timer, 10000,
+                () -> Request.newGet().setURI(uri), uri, future, null, bufferSize, blockSize, RequestPriority.POLL);
+        transfer.start();
+        return transfer;
+    }
+
+    private void assertAbortedAfter(int requests) {
+        assertTrue(future.isDone());
+        assertNull(future.getNow(null));
+        assertEquals(requests, sent.size());
+    }
+
+    private static CoapResponse block(int num, boolean more, byte @Nullable [] etag, int length) {
+        Response response = new Response(CoAP.ResponseCode.CONTENT);
+        int size = Math.max(16, Integer.highestOneBit(Math.max(16, length)));
+        int szx = Integer.numberOfTrailingZeros(size) - 4;
+        response.getOptions().setBlock2(szx, more, num);
+        if (etag != null) {
+            response.getOptions().addETag(etag);
+        }
+        byte[] payload = new byte[length];
+        for (int i = 0; i < length; i++) {
+            payload[i] = (byte) (num * size + i);
+        }
+        response.setPayload(payload);
+        return new CoapResponse(response);
+    }
+}
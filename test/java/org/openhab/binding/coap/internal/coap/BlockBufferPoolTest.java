@@ -0,0 +1,99 @@
+/**
+ * Copyright (c) 2010-2022 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.coap.internal.coap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.junit.jupiter.api.Test;
+
+/**
+ * The {@link BlockBufferPoolTest} tests the accounting of the {@link BlockBufferPool}
+ *
+ * @author Jan N. Klug - Initial contribution
+ */
+@NonNullByDefault
+public class BlockBufferPoolTest {
+
+    @Test
+    public void reusesReleasedBuffers() {
+        BlockBufferPool pool = new BlockBufferPool(2, 65536);
+        BlockBufferPool.Buffer buffer = pool.acquire();
+        assertEquals(0, pool.getPooled());
+        buffer.release();
+        assertEquals(1, pool.getPooled());
+
+        BlockBufferPool.Buffer reused = pool.acquire();
+        assertEquals(0, pool.getPooled());
+        assertEquals(0, reused.size());
+        reused.release();
+        assertEquals(1, pool.getPooled());
+    }
+
+    @Test
+    public void countsADoubleReleaseOnce() {
+        BlockBufferPool pool = new BlockBufferPool(2, 65536);
+        BlockBufferPool.Buffer buffer = pool.acquire();
+        buffer.release();
+        buffer.release();
+        assertEquals(1, pool.getPooled());
+    }
+
+    @Test
+    public void keepsAtMostMaxPooledBuffers() {
+        BlockBufferPool pool = new BlockBufferPool(2, 65536);
+        BlockBufferPool.Buffer first = pool.acquire();
+        BlockBufferPool.Buffer second = pool.acquire();
+        BlockBufferPool.Buffer third = pool.acquire();
+        first.release();
+        second.release();
+        third.release();
+        assertEquals(2, pool.getPooled());
+
+        pool.acquire();
+        pool.acquire();
+        pool.acquire();
+        assertEquals(0, pool.getPooled());
+    }
+
+    @Test
+    public void dropsOversizedBuffers() {
+        BlockBufferPool pool = new BlockBufferPool(2, 4096);
+        BlockBufferPool.Buffer buffer = pool.acquire();
+        buffer.append(new byte[5000]);
+        buffer.release();
+        assertEquals(0, pool.getPooled());
+    }
+
+    @Test
+    public void growsAndReturnsTheExactContent() {
+        BlockBufferPool pool = new BlockBufferPool(2, 65536);
+        BlockBufferPool.Buffer buffer = pool.acquire();
+        byte[] block = new byte[1024];
+        for (int i = 0; i < block.length; i++) {
+            block[i] = (byte) i;
+        }
+        for (int i = 0; i < 6; i++) {
+            buffer.append(block);
+        }
+        buffer.append(new byte[] { 42 });
+
+        byte[] content = buffer.toByteArray();
+        assertEquals(6 * 1024 + 1, buffer.size());
+        assertEquals(6 * 1024 + 1, content.length);
+        assertEquals((byte) 255, content[5 * 1024 + 255]);
+        assertEquals((byte) 42, content[6 * 1024]);
+        buffer.release();
+        assertEquals(1, pool.getPooled());
+    }
+}
@@ -0,0 +1,150 @@
+/**
+ * Copyright (c) 2010-2022 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.coap.internal.coap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.junit.jupiter.api.Test;
+import org.openhab.core.library.types.IncreaseDecreaseType;
+import org.openhab.core.library.types.OnOffType;
+import org.openhab.core.library.types.StringType;
+import org.openhab.core.library.types.UpDownType;
+import org.openhab.core.types.Command;
+
+/**
+ * The {@link CommandCoalescerTest} tests the {@link CommandCoalescer}. The exchanges are completed by the test, so
+ * the order of the sent commands is deterministic.
+ *
+ * @author Jan N. Klug - Initial contribution
+ */
+@NonNullByDefault
+public class CommandCoalescerTest {
+    private final List<Command> sent = new ArrayList<>();
+    private final List<CompletableFuture<?>> exchanges = new ArrayList<>();
+    private final CommandCoalescer coalescer = new CommandCoalescer(command -> {
+        sent.add(command);
+        CompletableFuture<?> exchange = new CompletableFuture<>();
+        exchanges.add(exchange);
+        return exchange;
+    });
+
+    @Test
+    public void sendsTheFirstCommandImmediately() {
+        coalescer.send(OnOffType.ON);
+        assertEquals(List.of(OnOffType.ON), sent);
+    }
+
+    @Test
+    public void sendsOnlyTheLatestAbsoluteCommand() {
+        StringType first = new StringType("1");
+        StringType second = new StringType("2");
+        StringType third = new StringType("3");
+        coalescer.send(first);
+        coalescer.send(second);
+        coalescer.send(third);
+        assertEquals(List.of(first), sent);
+
+        completeLast();
+        assertEquals(List.of(first, third), sent);
+        completeLast();
+        assertEquals(2, sent.size());
+    }
+
+    @Test
+    public void queuesRelativeCommands() {
+        coalescer.send(OnOffType.ON);
+        coalescer.send(IncreaseDecreaseType.INCREASE);
+        coalescer.send(IncreaseDecreaseType.INCREASE);
+        coalescer.send(UpDownType.DOWN);
+
+        completeLast();
+        completeLast();
+        completeLast();
+        assertEquals(List.of(OnOffType.ON, IncreaseDecreaseType.INCREASE, IncreaseDecreaseType.INCREASE,
+                UpDownType.DOWN), sent);
+    }
+
+    @Test
+    public void dropsRelativeCommandsSupersededByAnAbsoluteOne() {
+        coalescer.send(OnOffType.ON);
+        coalescer.send(IncreaseDecreaseType.INCREASE);
+        coalescer.send(OnOffType.OFF);
+        coalescer.send(IncreaseDecreaseType.DECREASE);
+
+        completeLast();
+        completeLast();
+        completeLast();
+        assertEquals(List.of(OnOffType.ON, OnOffType.OFF, IncreaseDecreaseType.DECREASE), sent);
+    }
+
+    @Test
+    public void sendsImmediatelyAgainAfterTheExchange() {
+        coalescer.send(OnOffType.ON);
+        exchanges.get(0).completeExceptionally(new IllegalStateException("timeout"));
+        coalescer.send(OnOffType.OFF);
+        assertEquals(List.of(OnOffType.ON, OnOffType.OFF), sent);
+    }
+
+    @Test
+    public void dropsPendingCommandsWhenStopped() {
+        coalescer.send(OnOffType.ON);
+        coalescer.send(OnOffType.OFF);
+        coalescer.stop();
+        completeLast();
+        coalescer.send(UpDownType.UP);
+        assertEquals(List.of(OnOffType.ON), sent);
+    }
+
+    @Test
+    public void releasesTheChannelIfTheSenderFails() {
+        List<Command> attempts = new ArrayList<>();
+        CommandCoalescer failing = new CommandCoalescer(command -> {
+            attempts.add(command);
+            if (command == OnOffType.ON) {
+                throw new IllegalArgumentException("not convertible");
+            }
+            return CompletableFuture.completedFuture(null);
+        });
+        assertThrows(IllegalArgumentException.class, () -> failing.send(OnOffType.ON));
+        failing.send(OnOffType.OFF);
+        assertEquals(List.of(OnOffType.ON, OnOffType.OFF), attempts);
+    }
+
+    @Test
+    public void continuesAfterAFailingPendingCommand() {
+        List<Command> attempts = new ArrayList<>();
+        CompletableFuture<?> exchange = new CompletableFuture<>();
+        CommandCoalescer failing = new CommandCoalescer(command -> {
+            attempts.add(command);
+            if (command == OnOffType.OFF) {
+                throw new IllegalStateException("read-only");
+            }
+            return command == OnOffType.ON ? exchange : CompletableFuture.completedFuture(null);
+        });
+        failing.send(OnOffType.ON);
+        failing.send(OnOffType.OFF);
+        exchange.complete(null);
+        failing.send(UpDownType.UP);
+        assertEquals(List.of(OnOffType.ON, OnOffType.OFF, UpDownType.UP), attempts);
+    }
+
+    private void completeLast() {
+        exchanges.get(exchanges.size() - 1).complete(null);
+    }
+}
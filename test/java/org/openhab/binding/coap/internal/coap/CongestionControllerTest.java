@@ -0,0 +1,152 @@
+/**
+ * Copyright (c) 2010-2022 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.coap.internal.coap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Queue;
+
+import org.eclipse.californium.core.CoapClient;
+import org.eclipse.californium.core.CoapHandler;
+import org.eclipse.californium.core.CoapResponse;
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+import org.junit.jupiter.api.Test;
+
+/**
+ * The {@link CongestionControllerTest} tests the NSTART limit of the {@link CongestionController}. The queued
+ * requests are sent from an executor that is run by the test.
+ *
+ * @author Jan N. Klug - Initial contribution
+ */
+@NonNullByDefault
+public class CongestionControllerTest {
+    private static final String HOST = "localhost";
+
+    private final Queue<Runnable> tasks = new ArrayDeque<>();
+    private final List<Request> sent = new ArrayList<>();
+    private final List<Request> failing = new ArrayList<>();
+    private final CoapClient coapClient = new CoapClient() {
+        @Override
+        public void advanced(@Nullable CoapHandler handler, @Nullable Request request) {
+            Request sentRequest = Objects.requireNonNull(request);
+            if (failing.contains(sentRequest)) {
+                throw new IllegalStateException("endpoint stopped");
+            }
+            sent.add(sentRequest);
+        }
+    };
+    private final CongestionController controller = new CongestionController(2, tasks::add);
+    private final Handler handler = new Handler();
+
+    @Test
+    public void limitsTheOutstandingRequests() {
+        Request first = send(RequestPriority.POLL);
+        Request second = send(RequestPriority.POLL);
+        send(RequestPriority.POLL);
+        assertEquals(List.of(first, second), sent);
+        assertEquals(2, estimate().outstanding);
+        assertEquals(1, estimate().queued);
+    }
+
+    @Test
+    public void sendsTheNextRequestFromTheExecutor() {
+        Request first = send(RequestPriority.POLL);
+        send(RequestPriority.POLL);
+        Request third = send(RequestPriority.POLL);
+
+        first.cancel();
+        assertEquals(2, sent.size());
+        assertEquals(1, tasks.size());
+
+        runTasks();
+        assertEquals(third, sent.get(2));
+        assertEquals(2, estimate().outstanding);
+        assertEquals(0, estimate().queued);
+    }
+
+    @Test
+    public void sendsQueuedRequestsByPriority() {
+        Request first = send(RequestPriority.POLL);
+        send(RequestPriority.POLL);
+        send(RequestPriority.POLL);
+        Request command = send(RequestPriority.COMMAND);
+
+        first.cancel();
+        runTasks();
+        assertEquals(command, sent.get(2));
+    }
+
+    @Test
+    public void releasesTheSlotIfSendingFails() {
+        Request broken = Request.newGet();
+        failing.add(broken);
+        controller.send(HOST, coapClient, broken, handler, RequestPriority.POLL);
+        assertEquals(1, handler.errors);
+        assertEquals(0, estimate().outstanding);
+
+        send(RequestPriority.POLL);
+        send(RequestPriority.POLL);
+        assertEquals(2, sent.size());
+    }
+
+    @Test
+    public void releasesTheSlotOfACancelledQueuedRequest() {
+        Request first = send(RequestPriority.POLL);
+        send(RequestPriority.POLL);
+        Request queued = send(RequestPriority.POLL);
+        queued.cancel();
+
+        first.cancel();
+        runTasks();
+        assertEquals(1, handler.errors);
+        assertEquals(1, estimate().outstanding);
+        assertTrue(tasks.isEmpty());
+    }
+
+    private Request send(RequestPriority priority) {
+        Request request = Request.newGet();
+        controller.send(HOST, coapClient, request, handler, priority);
+        return request;
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            task.run();
+        }
+    }
+
+    private CongestionController.Estimate estimate() {
+        return Objects.requireNonNull(controller.getEstimate(HOST));
+    }
+
+    private static class Handler implements CoapHandler {
+        private int errors = 0;
+
+        @Override
+        public void onLoad(@Nullable CoapResponse response) {
+        }
+
+        @Override
+        public void onError() {
+            errors++;
+        }
+    }
+}
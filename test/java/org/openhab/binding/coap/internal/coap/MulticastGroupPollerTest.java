@@ -0,0 +1,47 @@
+/**
+ * Copyright (c) 2010-2022 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.coap.internal.coap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.junit.jupiter.api.Test;
+
+/**
+ * The {@link MulticastGroupPollerTest} tests the group URIs of the {@link MulticastGroupPoller}
+ *
+ * @author Jan N. Klug - Initial contribution
+ */
+@NonNullByDefault
+public class MulticastGroupPollerTest {
+
+    @Test
+    public void replacesTheHostByTheGroup() throws URISyntaxException {
+        assertEquals(URI.create("coap://224.0.1.187:5683/sensors/temp?unit=C"), MulticastGroupPoller
+                .toGroupUri(URI.create("coap://192.168.1.10:5683/sensors/temp?unit=C"), "224.0.1.187"));
+        assertEquals(URI.create("coap://[ff05::fd]/light"),
+                MulticastGroupPoller.toGroupUri(URI.create("coap://[fd00::1]/light"), "[ff05::fd]"));
+    }
+
+    @Test
+    public void refusesSchemesWithoutMulticast() {
+        for (String scheme : new String[] { "coaps", "coap+tcp", "coaps+tcp" }) {
+            assertThrows(IllegalArgumentException.class, () -> MulticastGroupPoller
+                    .toGroupUri(URI.create(scheme + "://192.168.1.10/sensors/temp"), "224.0.1.187"));
+        }
+    }
+}
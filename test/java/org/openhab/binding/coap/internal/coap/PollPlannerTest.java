@@ -0,0 +1,133 @@
+/**
+ * Copyright (c) 2010-2022 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.coap.internal.coap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.eclipse.californium.core.CoapClient;
+import org.eclipse.californium.core.coap.CoAP;
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.openhab.binding.coap.internal.config.CoAPThingConfig;
+
+/**
+ * The {@link PollPlannerTest} tests the phases the {@link PollPlanner} assigns to the polls of a host. The refresh
+ * interval is long, so no poll runs during the test.
+ *
+ * @author Jan N. Klug - Initial contribution
+ */
+@NonNullByDefault
+public class PollPlannerTest {
+    private static final String HOST = "localhost";
+    private static final int REFRESH = 60; // in s
+    // the scheduling and the test itself take some time
+    private static final long TOLERANCE = 200; // in ms
+
+    private final TimingWheel timer = new TimingWheel(Runnable::run, 10, TimeUnit.MILLISECONDS, 512);
+    private final SingleFlightRegistry registry = new SingleFlightRegistry();
+    private final List<RefreshingUrlCache> caches = new ArrayList<>();
+    private @Nullable String problem;
+    private final Consumer<@Nullable String> listener = problem -> this.problem = problem;
+
+    @AfterEach
+    public void tearDown() {
+        caches.forEach(RefreshingUrlCache::stop);
+        timer.stop();
+    }
+
+    @Test
+    public void spreadsThePollsOfANewHost() {
+        PollPlanner planner = new PollPlanner(new RateLimitedCoAPClient(timer, 0, 1));
+        List<RefreshingUrlCache> polled = List.of(cache("a"), cache("b"), cache("c"));
+        long initial = polled.stream().mapToLong(RefreshingUrlCache::getNextPollDelay).min().orElseThrow();
+
+        planner.register(HOST, polled, listener);
+        assertNear(initial, polled.get(0).getNextPollDelay());
+        assertNear(initial + 20000, polled.get(1).getNextPollDelay());
+        assertNear(initial + 40000, polled.get(2).getNextPollDelay());
+        assertNull(problem);
+    }
+
+    @Test
+    public void keepsTheRunningSchedulesWhenAThingIsAdded() {
+        PollPlanner planner = new PollPlanner(new RateLimitedCoAPClient(timer, 0, 1));
+        RefreshingUrlCache first = cache("a");
+        RefreshingUrlCache second = cache("b");
+        planner.register(HOST, List.of(first, second), listener);
+        long firstDelay = first.getNextPollDelay();
+        long secondDelay = second.getNextPollDelay();
+        assertNear(firstDelay + 30000, secondDelay);
+
+        RefreshingUrlCache added = cache("c");
+        Consumer<@Nullable String> otherListener = p -> {
+        };
+        planner.register(HOST, List.of(added), otherListener);
+        assertNear(firstDelay, first.getNextPollDelay());
+        assertNear(secondDelay, second.getNextPollDelay());
+        // the largest gap is between the first and the second poll
+        assertNear(firstDelay + 15000, added.getNextPollDelay());
+
+        planner.unregister(HOST, List.of(added), otherListener);
+        assertNear(firstDelay, first.getNextPollDelay());
+        assertNear(secondDelay, second.getNextPollDelay());
+    }
+
+    @Test
+    public void placesANewPollAfterTheStartDelay() {
+        PollPlanner planner = new PollPlanner(new RateLimitedCoAPClient(timer, 0, 1));
+        RefreshingUrlCache first = cache("a");
+        planner.register(HOST, List.of(first), listener);
+        RefreshingUrlCache added = cache("b");
+        planner.register(HOST, List.of(added), p -> {
+        });
+        long distance = Math.floorMod(added.getNextPollDelay() - first.getNextPollDelay(), REFRESH * 1000L);
+        assertNear(30000, distance);
+        assertTrue(added.getNextPollDelay() >= 1000);
+    }
+
+    @Test
+    public void reportsAPlanExceedingTheRateLimit() {
+        // three polls every 60s are possible, four are not
+        PollPlanner planner = new PollPlanner(new RateLimitedCoAPClient(timer, 0.06, 1));
+        planner.register(HOST, List.of(cache("a"), cache("b"), cache("c")), listener);
+        assertNull(problem);
+
+        planner.register(HOST, List.of(cache("d")), p -> {
+        });
+        assertNotNull(problem);
+    }
+
+    private RefreshingUrlCache cache(String path) {
+        CoAPThingConfig config = new CoAPThingConfig();
+        config.refresh = REFRESH;
+        RefreshingUrlCache cache = new RefreshingUrlCache(timer, Runnable::run, new CoapClient(),
+                new CongestionController(1, Runnable::run), new RateLimitedCoAPClient(timer, 0, 1), registry,
+                "coap://" + HOST + "/" + path, true, CoAP.Type.CON, config, "");
+        caches.add(cache);
+        return cache;
+    }
+
+    private static void assertNear(long expected, long actual) {
+        assertTrue(Math.abs(expected - actual) <= TOLERANCE, "Expected " + expected + " ms but was " + actual + " ms");
+    }
+}
@@ -0,0 +1,206 @@
+/**
+ * Copyright (c) 2010-2022 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.coap.internal.coap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * The {@link RateLimitedCoAPClientTest} tests the token bucket and the lanes of the {@link RateLimitedCoAPClient}.
+ * The buckets are refilled from a clock that is advanced by the test, so requests are only released when the test
+ * allows it.
+ *
+ * @author Jan N. Klug - Initial contribution
+ */
+@NonNullByDefault
+public class RateLimitedCoAPClientTest {
+    private static final String HOST = "localhost";
+
+    private final AtomicLong now = new AtomicLong();
+    private final TimingWheel timer = new TimingWheel(Runnable::run, 1, TimeUnit.MILLISECONDS, 64);
+
+    @AfterEach
+    public void tearDown() {
+        timer.stop();
+    }
+
+    @Test
+    public void sendsABurstWithoutDelay() {
+        RateLimitedCoAPClient client = client(100, 3);
+        for (int i = 0; i < 3; i++) {
+            assertTrue(client.acquire(HOST, RequestPriority.POLL).isDone());
+        }
+        assertFalse(client.acquire(HOST, RequestPriority.POLL).isDone());
+    }
+
+    @Test
+    public void releasesWaitingRequestsAtTheRate() throws Exception {
+        RateLimitedCoAPClient client = client(100, 1);
+        client.acquire(HOST, RequestPriority.POLL);
+        CompletableFuture<@Nullable Void> second = client.acquire(HOST, RequestPriority.POLL);
+        CompletableFuture<@Nullable Void> third = client.acquire(HOST, RequestPriority.POLL);
+
+        // the wakeups find no new token as long as the clock stands still
+        assertThrows(TimeoutException.class, () -> second.get(50, TimeUnit.MILLISECONDS));
+        advance(10);
+        second.get(2, TimeUnit.SECONDS);
+        assertFalse(third.isDone());
+        advance(10);
+        third.get(2, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void doesNotLimitWithoutRate() {
+        RateLimitedCoAPClient client = client(0, 1);
+        for (int i = 0; i < 100; i++) {
+            assertTrue(client.acquire(HOST, RequestPriority.POLL).isDone());
+        }
+        assertEquals(null, client.getStatus(HOST));
+    }
+
+    @Test
+    public void appliesTheMostRestrictiveDelay() {
+        RateLimitedCoAPClient client = client(10, 1);
+        client.limitHost(HOST, "thing:a", 200);
+        assertEquals(5, client.getRate(HOST));
+        client.limitHost(HOST, "thing:b", 500);
+        assertEquals(2, client.getRate(HOST));
+        client.limitHost(HOST, "thing:b", 50);
+        assertEquals(5, client.getRate(HOST));
+        client.unlimitHost(HOST, "thing:a");
+        assertEquals(10, client.getRate(HOST));
+        client.unlimitHost(HOST, "thing:b");
+        assertEquals(10, client.getRate(HOST));
+    }
+
+    @Test
+    public void releasesWaitingRequestsWhenTheLimitIsLifted() throws Exception {
+        RateLimitedCoAPClient client = client(0, 1);
+        client.limitHost(HOST, "thing:a", 1000);
+        client.acquire(HOST, RequestPriority.POLL);
+        CompletableFuture<@Nullable Void> waiting = client.acquire(HOST, RequestPriority.POLL);
+        assertFalse(waiting.isDone());
+
+        client.unlimitHost(HOST, "thing:a");
+        waiting.get(2, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void rejectsRequestsWhenTheQueueIsFull() {
+        RateLimitedCoAPClient client = client(100, 1);
+        client.acquire(HOST, RequestPriority.COMMAND);
+        for (int i = 0; i < RequestPriority.COMMAND.getMaxQueueSize(); i++) {
+            assertFalse(client.acquire(HOST, RequestPriority.COMMAND).isDone());
+        }
+        CompletableFuture<@Nullable Void> rejected = client.acquire(HOST, RequestPriority.COMMAND);
+        ExecutionException e = assertThrows(ExecutionException.class, () -> rejected.get());
+        assertTrue(e.getCause() instanceof RejectedExecutionException);
+        // other classes have their own queue
+        assertFalse(client.acquire(HOST, RequestPriority.POLL).isCompletedExceptionally());
+    }
+
+    @Test
+    public void cancelsWaitingRequestsOnShutdown() {
+        RateLimitedCoAPClient client = client(100, 1);
+        client.acquire(HOST, RequestPriority.POLL);
+        CompletableFuture<@Nullable Void> waiting = client.acquire(HOST, RequestPriority.POLL);
+        client.shutdown();
+        assertThrows(CancellationException.class, () -> waiting.getNow(null));
+    }
+
+    @Test
+    public void servesCommandsBeforeQueuedRequests() throws Exception {
+        RateLimitedCoAPClient client = client(100, 1);
+        client.acquire(HOST, RequestPriority.POLL);
+        CompletableFuture<@Nullable Void> poll = client.acquire(HOST, RequestPriority.POLL);
+        CompletableFuture<@Nullable Void> refresh = client.acquire(HOST, RequestPriority.REFRESH);
+        CompletableFuture<@Nullable Void> command = client.acquire(HOST, RequestPriority.COMMAND);
+
+        advance(10);
+        command.get(2, TimeUnit.SECONDS);
+        assertFalse(poll.isDone());
+        assertFalse(refresh.isDone());
+    }
+
+    @Test
+    public void doesNotOvertakeWaitingRequestsOfTheSameClass() {
+        RateLimitedCoAPClient client = client(100, 2);
+        client.acquire(HOST, RequestPriority.POLL);
+        client.acquire(HOST, RequestPriority.POLL);
+        client.acquire(HOST, RequestPriority.POLL);
+        // a token is available again, but it belongs to the waiting request
+        advance(10);
+        assertFalse(client.acquire(HOST, RequestPriority.POLL).isDone());
+    }
+
+    @Test
+    public void sharesTheRateByWeight() throws Exception {
+        RateLimitedCoAPClient client = client(100, 1);
+        client.acquire(HOST, RequestPriority.POLL);
+        List<RequestPriority> order = new CopyOnWriteArrayList<>();
+        List<CompletableFuture<@Nullable Void>> waiting = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            for (RequestPriority priority : List.of(RequestPriority.POLL, RequestPriority.REFRESH)) {
+                CompletableFuture<@Nullable Void> future = client.acquire(HOST, priority);
+                future.thenRun(() -> order.add(priority));
+                waiting.add(future);
+            }
+        }
+
+        for (int i = 0; i < 6; i++) {
+            advance(10);
+            waitForCompleted(waiting, i + 1);
+        }
+        // REFRESH has twice the weight of POLL (smooth weighted round-robin)
+        assertEquals(List.of(RequestPriority.REFRESH, RequestPriority.POLL, RequestPriority.REFRESH,
+                RequestPriority.REFRESH, RequestPriority.POLL, RequestPriority.REFRESH), order);
+    }
+
+    private void waitForCompleted(List<CompletableFuture<@Nullable Void>> futures, int count)
+            throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+        while (futures.stream().filter(CompletableFuture::isDone).count() < count) {
+            if (System.nanoTime() > deadline) {
+                throw new AssertionError("Only " + futures.stream().filter(CompletableFuture::isDone).count()
+                        + " of " + count + " requests were released");
+            }
+            Thread.sleep(1);
+        }
+    }
+
+    private RateLimitedCoAPClient client(double rate, int burst) {
+        return new RateLimitedCoAPClient(timer, rate, burst, now::get);
+    }
+
+    private void advance(long millis) {
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+}
@@ -0,0 +1,150 @@
+/**
+ * Copyright (c) 2010-2022 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.coap.internal.coap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.eclipse.californium.core.CoapClient;
+import org.eclipse.californium.core.coap.CoAP;
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.openhab.binding.coap.internal.config.CoAPThingConfig;
+
+/**
+ * The {@link SingleFlightRegistryTest} tests the sharing of reads by the {@link SingleFlightRegistry} and that only
+ * caches sending the same request and handling the response the same way share a read.
+ *
+ * @author Jan N. Klug - Initial contribution
+ */
+@NonNullByDefault
+public class SingleFlightRegistryTest {
+    private static final URI URI = java.net.URI.create("coap://localhost/resource");
+
+    private final SingleFlightRegistry registry = new SingleFlightRegistry();
+    private final List<CompletableFuture<@Nullable Content>> started = new ArrayList<>();
+    private final TimingWheel timer = new TimingWheel(Runnable::run, 10, TimeUnit.MILLISECONDS, 8);
+    private final List<RefreshingUrlCache> caches = new ArrayList<>();
+
+    @AfterEach
+    public void tearDown() {
+        caches.forEach(RefreshingUrlCache::stop);
+        timer.stop();
+    }
+
+    @Test
+    public void sharesAReadInFlight() {
+        CompletableFuture<@Nullable Content> first = registry.fetch("a", this::start);
+        CompletableFuture<@Nullable Content> second = registry.fetch("a", this::start);
+        assertSame(first, second);
+        assertEquals(1, started.size());
+        assertEquals(1, registry.size());
+    }
+
+    @Test
+    public void startsSeparateReadsForDifferentKeys() {
+        registry.fetch("a", this::start);
+        registry.fetch("b", this::start);
+        assertEquals(2, started.size());
+    }
+
+    @Test
+    public void startsANewReadAfterCompletion() {
+        CompletableFuture<@Nullable Content> first = registry.fetch("a", this::start);
+        Content content = new Content(new byte[] { 1 }, "UTF-8", null);
+        started.get(0).complete(content);
+        assertSame(content, first.getNow(null));
+        assertEquals(0, registry.size());
+
+        registry.fetch("a", this::start);
+        assertEquals(2, started.size());
+    }
+
+    @Test
+    public void passesFailuresToAllReaders() {
+        CompletableFuture<@Nullable Content> first = registry.fetch("a", this::start);
+        CompletableFuture<@Nullable Content> second = registry.fetch("a", this::start);
+        started.get(0).completeExceptionally(new IllegalStateException("failed"));
+        assertThrows(ExecutionException.class, () -> first.get());
+        assertThrows(ExecutionException.class, () -> second.get());
+        assertEquals(0, registry.size());
+    }
+
+    @Test
+    public void removesTheReadIfStartingFails() {
+        CompletableFuture<@Nullable Content> failed = registry.fetch("a", () -> {
+            throw new IllegalStateException("no endpoint");
+        });
+        assertTrue(failed.isCompletedExceptionally());
+        assertEquals(0, registry.size());
+    }
+
+    @Test
+    public void usesTheSameKeyForTheSameRequest() {
+        assertEquals(key(config -> {
+        }, CoAP.Type.CON), key(config -> {
+        }, CoAP.Type.CON));
+    }
+
+    @Test
+    public void includesTheRequestAndItsHandlingInTheKey() {
+        String key = key(config -> {
+        }, CoAP.Type.CON);
+        assertNotEquals(key, key(config -> {
+        }, CoAP.Type.NON));
+        assertNotEquals(key, key(config -> config.encoding = "ISO-8859-1", CoAP.Type.CON));
+        assertNotEquals(key, key(config -> config.bufferSize = 1024, CoAP.Type.CON));
+        assertNotEquals(key, key(config -> config.blockSize = 64, CoAP.Type.CON));
+        assertNotEquals(key, key(config -> config.timeout = 10000, CoAP.Type.CON));
+        assertNotEquals(key, key(config -> config.stateMethod = CoAP.Code.FETCH, CoAP.Type.CON));
+    }
+
+    @Test
+    public void includesTheEtagsInTheKey() {
+        RefreshingUrlCache cache = cache(new CoAPThingConfig(), CoAP.Type.CON);
+        assertNotEquals(cache.getTransferKey(URI, List.of()), cache.getTransferKey(URI, List.of(new byte[] { 1 })));
+    }
+
+    private CompletableFuture<@Nullable Content> start() {
+        CompletableFuture<@Nullable Content> read = new CompletableFuture<>();
+        started.add(read);
+        return read;
+    }
+
+    private String key(Consumer<CoAPThingConfig> configurer, CoAP.Type messageType) {
+        CoAPThingConfig config = new CoAPThingConfig();
+        configurer.accept(config);
+        return cache(config, messageType).getTransferKey(URI, List.of());
+    }
+
+    private RefreshingUrlCache cache(CoAPThingConfig config, CoAP.Type messageType) {
+        RefreshingUrlCache cache = new RefreshingUrlCache(timer, Runnable::run, new CoapClient(),
+                new CongestionController(1, Runnable::run), new RateLimitedCoAPClient(timer, 0, 1), registry,
+                URI.toString(), true, messageType, config, "");
+        caches.add(cache);
+        return cache;
+    }
+}
@@ -0,0 +1,121 @@
+/**
+ * Copyright (c) 2010-2022 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.coap.internal.coap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * The {@link TimingWheelTest} tests the {@link TimingWheel}
+ *
+ * @author Jan N. Klug - Initial contribution
+ */
+@NonNullByDefault
+public class TimingWheelTest {
+    // 8 buckets of 10 ms, one rotation takes 80 ms
+    private final TimingWheel timer = new TimingWheel(Runnable::run, 10, TimeUnit.MILLISECONDS, 8);
+
+    @AfterEach
+    public void tearDown() {
+        timer.stop();
+    }
+
+    @Test
+    public void runsTasksNotBeforeTheirDelay() throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(1);
+        long start = System.nanoTime();
+        AtomicInteger elapsed = new AtomicInteger();
+        timer.schedule(() -> {
+            elapsed.set((int) TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            latch.countDown();
+        }, 50, TimeUnit.MILLISECONDS);
+
+        assertTrue(latch.await(2, TimeUnit.SECONDS));
+        assertTrue(elapsed.get() >= 50, "Task ran after " + elapsed.get() + " ms");
+    }
+
+    @Test
+    public void runsTasksLongerThanOneRotation() throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(1);
+        long start = System.nanoTime();
+        AtomicInteger elapsed = new AtomicInteger();
+        timer.schedule(() -> {
+            elapsed.set((int) TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            latch.countDown();
+        }, 250, TimeUnit.MILLISECONDS);
+
+        assertTrue(latch.await(2, TimeUnit.SECONDS));
+        assertTrue(elapsed.get() >= 250, "Task ran after " + elapsed.get() + " ms");
+    }
+
+    @Test
+    public void runsTasksInTheOrderOfTheirDeadlines() throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(3);
+        List<Integer> order = new CopyOnWriteArrayList<>();
+        for (int delay : new int[] { 150, 0, 60 }) {
+            timer.schedule(() -> {
+                order.add(delay);
+                latch.countDown();
+            }, delay, TimeUnit.MILLISECONDS);
+        }
+
+        assertTrue(latch.await(2, TimeUnit.SECONDS));
+        assertEquals(List.of(0, 60, 150), order);
+    }
+
+    @Test
+    public void doesNotRunCancelledTasks() throws InterruptedException {
+        AtomicBoolean ran = new AtomicBoolean(false);
+        TimingWheel.Timeout timeout = timer.schedule(() -> ran.set(true), 20, TimeUnit.MILLISECONDS);
+        assertTrue(timeout.cancel());
+        assertFalse(timeout.cancel());
+        assertTrue(timeout.isCancelled());
+
+        CountDownLatch later = new CountDownLatch(1);
+        timer.schedule(later::countDown, 100, TimeUnit.MILLISECONDS);
+        assertTrue(later.await(2, TimeUnit.SECONDS));
+        assertFalse(ran.get());
+    }
+
+    @Test
+    public void keepsRunningAfterAFailingTask() throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(1);
+        timer.schedule(() -> {
+            throw new IllegalStateException("test");
+        }, 0, TimeUnit.MILLISECONDS);
+        timer.schedule(latch::countDown, 30, TimeUnit.MILLISECONDS);
+
+        assertTrue(latch.await(2, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void rejectsTasksWhenStopped() {
+        timer.stop();
+        assertThrows(RejectedExecutionException.class, () -> timer.schedule(() -> {
+        }, 0, TimeUnit.MILLISECONDS));
+    }
+}
@@ -0,0 +1,161 @@
+/**
+ * Copyright (c) 2010-2022 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.coap.internal.senml;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.StringReader;
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.junit.jupiter.api.Test;
+import org.openhab.binding.coap.internal.cbor.CborWriter;
+
+/**
+ * The {@link SenMLPackTest} tests the resolution of base values and times by the {@link SenMLPack}
+ *
+ * @author Jan N. Klug - Initial contribution
+ */
+@NonNullByDefault
+public class SenMLPackTest {
+    // CBOR labels (RFC 8428, section 6)
+    private static final long BN = -2;
+    private static final long BT = -3;
+    private static final long BU = -4;
+    private static final long BV = -5;
+    private static final long BS = -6;
+    private static final long N = 0;
+    private static final long U = 1;
+    private static final long V = 2;
+    private static final long VS = 3;
+    private static final long VB = 4;
+    private static final long S = 5;
+    private static final long T = 6;
+    private static final long VD = 8;
+
+    @Test
+    public void appliesBaseValues() {
+        Map<String, SenMLRecord> records = decode(
+                record(BN, "urn:dev:ow:10e2073a01080063:", BT, 1320067464, BU, "Cel", BV, 20, N, "temp", V, 1.5),
+                record(N, "humidity", U, "%RH", V, 50, T, 2), record(N, "voltage", U, "V", V, new BigDecimal("0.2")));
+
+        SenMLRecord temp = get(records, "urn:dev:ow:10e2073a01080063:temp");
+        assertEquals(0, new BigDecimal("21.5").compareTo((BigDecimal) temp.getValue()));
+        assertEquals("Cel", temp.getUnit());
+        assertEquals(Instant.ofEpochSecond(1320067464), temp.getTime());
+
+        SenMLRecord humidity = get(records, "urn:dev:ow:10e2073a01080063:humidity");
+        assertEquals(0, new BigDecimal("70").compareTo((BigDecimal) humidity.getValue()));
+        assertEquals("%RH", humidity.getUnit());
+        assertEquals(Instant.ofEpochSecond(1320067466), humidity.getTime());
+
+        // the base unit applies, the unit of a previous record does not
+        SenMLRecord voltage = get(records, "urn:dev:ow:10e2073a01080063:voltage");
+        assertEquals(0, new BigDecimal("20.2").compareTo((BigDecimal) voltage.getValue()));
+        assertEquals("V", voltage.getUnit());
+    }
+
+    @Test
+    public void appliesBaseValuesOnlyToNumbers() {
+        Map<String, SenMLRecord> records = decode(record(BN, "dev/", BV, 10, BS, 100, N, "label", VS, "kitchen"),
+                record(N, "open", VB, true), record(N, "raw", VD, new byte[] { 1, 2 }), record(N, "energy", S, 5));
+
+        assertEquals("kitchen", get(records, "dev/label").getValue());
+        assertEquals(true, get(records, "dev/open").getValue());
+        assertArrayEquals(new byte[] { 1, 2 }, (byte[]) get(records, "dev/raw").getValue());
+        assertEquals(0, new BigDecimal("105").compareTo((BigDecimal) get(records, "dev/energy").getValue()));
+    }
+
+    @Test
+    public void resolvesRelativeTimes() {
+        Instant before = Instant.now();
+        Map<String, SenMLRecord> records = decode(record(N, "now", V, 1), record(N, "past", V, 2, T, -60),
+                record(BT, -30, N, "base", V, 3, T, 0.5));
+        Instant after = Instant.now();
+
+        assertBetween(before, after, get(records, "now").getTime());
+        assertBetween(before.minusSeconds(60), after.minusSeconds(60), get(records, "past").getTime());
+        assertBetween(before.minusMillis(29500), after.minusMillis(29500), get(records, "base").getTime());
+    }
+
+    @Test
+    public void keepsTheLatestRecordOfAName() {
+        Map<String, SenMLRecord> records = decode(record(BT, 1320067464, N, "temp", V, 2, T, 10),
+                record(N, "temp", V, 1), record(N, "temp", V, 3, T, 10));
+
+        assertEquals(1, records.size());
+        SenMLRecord temp = get(records, "temp");
+        // equal times: the later record in the pack wins
+        assertEquals(0, BigDecimal.valueOf(3).compareTo((BigDecimal) temp.getValue()));
+        assertEquals(Instant.ofEpochSecond(1320067474), temp.getTime());
+    }
+
+    @Test
+    public void ignoresRecordsWithoutValue() {
+        Map<String, SenMLRecord> records = decode(record(BN, "dev/", BU, "Cel"), record(N, "temp", V, 20));
+
+        assertEquals(1, records.size());
+        assertEquals("Cel", get(records, "dev/temp").getUnit());
+    }
+
+    @Test
+    public void rejectsInvalidPacks() {
+        assertThrows(IllegalArgumentException.class, () -> decode(record(V, 1)));
+        assertThrows(IllegalArgumentException.class, () -> SenMLPack.decodeCbor(CborWriter.encode(record(N, "a"))));
+        assertThrows(IllegalArgumentException.class, () -> SenMLPack.decodeCbor(CborWriter.encode(List.of(1))));
+        assertThrows(IllegalArgumentException.class, () -> SenMLPack.decodeCbor(new byte[] { (byte) 0x81 }));
+    }
+
+    @Test
+    public void decodesJson() {
+        Map<String, SenMLRecord> records = SenMLPack.decodeJson(new StringReader(
+                "[{\"bn\":\"dev/\",\"bt\":1320067464,\"bv\":20,\"n\":\"temp\",\"u\":\"Cel\",\"v\":1.5,"
+                        + "\"ext\":{\"a\":1}},{\"n\":\"raw\",\"vd\":\"AQI\"}]"));
+
+        SenMLRecord temp = get(records, "dev/temp");
+        assertEquals(0, new BigDecimal("21.5").compareTo((BigDecimal) temp.getValue()));
+        assertEquals(Instant.ofEpochSecond(1320067464), temp.getTime());
+        assertArrayEquals(new byte[] { 1, 2 }, (byte[]) get(records, "dev/raw").getValue());
+        assertThrows(IllegalArgumentException.class, () -> SenMLPack.decodeJson(new StringReader("{\"n\":1}")));
+    }
+
+    private static Map<Object, Object> record(Object... fields) {
+        Map<Object, Object> record = new LinkedHashMap<>();
+        for (int i = 0; i < fields.length; i += 2) {
+            record.put(fields[i], fields[i + 1]);
+        }
+        return record;
+    }
+
+    @SafeVarargs
+    private static Map<String, SenMLRecord> decode(Map<Object, Object>... records) {
+        return SenMLPack.decodeCbor(CborWriter.encode(List.of(records)));
+    }
+
+    private static SenMLRecord get(Map<String, SenMLRecord> records, String name) {
+        return Objects.requireNonNull(records.get(name), "No record " + name);
+    }
+
+    private static void assertBetween(Instant from, Instant to, Instant actual) {
+        assertFalse(actual.isBefore(from), actual + " is before " + from);
+        assertFalse(actual.isAfter(to), actual + " is after " + to);
+    }
+}
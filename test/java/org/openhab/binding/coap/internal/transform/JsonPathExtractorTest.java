@@ -0,0 +1,127 @@
+/**
+ * Copyright (c) 2010-2022 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.coap.internal.transform;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Map;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.junit.jupiter.api.Test;
+
+/**
+ * The {@link JsonPathExtractorTest} tests that the {@link JsonPathExtractor} returns the same values as the JSONPATH
+ * transformation service for the expressions it supports
+ *
+ * @author Jan N. Klug - Initial contribution
+ */
+@NonNullByDefault
+public class JsonPathExtractorTest {
+    private static final String PAYLOAD = "{\"device\":{\"name\":\"sensor \\\"1\\\"\",\"online\":true},"
+            + "\"values\":[{\"temp\":21.5,\"hum\":40},{\"temp\":-3,\"hum\":null}],"
+            + "\"config\":{\"unit\":\"C\",\"limits\":[0,100]},\"ignored\":{\"deep\":[[1,2],{\"a\":\"b\"}]}}";
+
+    @Test
+    public void extractsTheValuesOfTheJsonPathService() throws IOException {
+        // the expected values are the results of the JSONPATH transformation service for the same payload
+        Map<String, String> results = extract("JSONPATH:$.device.name", "JSONPATH:$.device.online",
+                "JSONPATH:$['config']['unit']");
+
+        assertEquals("sensor \"1\"", results.get("JSONPATH:$.device.name"));
+        assertEquals("true", results.get("JSONPATH:$.device.online"));
+        assertEquals("C", results.get("JSONPATH:$['config']['unit']"));
+    }
+
+    @Test
+    public void leavesNumbersObjectsAndArraysToTheService() throws IOException {
+        // the service formats these differently from the payload (e.g. 2.50 as 2.5 or 1e3 as 1000.0)
+        Map<String, String> results = extract("JSONPATH:$.values[0].temp", "JSONPATH:$['values'][1]['temp']",
+                "JSONPATH:$.config.limits", "JSONPATH:$.config", "JSONPATH:$.config.limits[1]");
+
+        assertTrue(results.isEmpty());
+    }
+
+    @Test
+    public void returnsNoResultForNullAndMissingValues() throws IOException {
+        // the service fails for these, the channel falls back to it and gets no value
+        Map<String, String> results = extract("JSONPATH:$.values[1].hum", "JSONPATH:$.values[2].temp",
+                "JSONPATH:$.device.missing", "JSONPATH:$.device.name.first");
+
+        assertTrue(results.isEmpty());
+    }
+
+    @Test
+    public void selectsNestedPathsOfASelectedValue() throws IOException {
+        Map<String, String> results = extract("JSONPATH:$.config", "JSONPATH:$.config.unit");
+
+        assertNull(results.get("JSONPATH:$.config"));
+        assertEquals("C", results.get("JSONPATH:$.config.unit"));
+    }
+
+    @Test
+    public void keysResultsByTheLeadingStep() throws IOException {
+        JsonPathExtractor extractor = new JsonPathExtractor();
+        assertTrue(extractor.add("JSONPATH:$.device.name∩REGEX:s(.*)"));
+        assertTrue(extractor.add("jsonpath:$.device.online"));
+
+        Map<String, String> results = extractor.extract(new StringReader(PAYLOAD));
+        assertEquals("sensor \"1\"", results.get("JSONPATH:$.device.name"));
+        assertEquals("true", results.get("jsonpath:$.device.online"));
+    }
+
+    @Test
+    public void leavesUnsupportedExpressionsToTheService() {
+        JsonPathExtractor extractor = new JsonPathExtractor();
+        assertFalse(extractor.add("REGEX:(.*)"));
+        assertFalse(extractor.add("JSONPATH:$..temp"));
+        assertFalse(extractor.add("JSONPATH:$.values[*].temp"));
+        assertFalse(extractor.add("JSONPATH:$.values[-1].temp"));
+        assertFalse(extractor.add("JSONPATH:$.values[?(@.temp > 0)]"));
+        assertFalse(extractor.add("JSONPATH:$['device','values']"));
+        assertFalse(extractor.add("JSONPATH:values"));
+        assertTrue(extractor.isEmpty());
+    }
+
+    @Test
+    public void parsesDefinitePaths() throws IOException {
+        JsonPathExtractor extractor = new JsonPathExtractor();
+        assertTrue(extractor.add("JSONPATH:$.a['b c'][0][\"d\"]"));
+        assertFalse(extractor.add("JSONPATH:$.a["));
+        assertFalse(extractor.add("JSONPATH:$.a.*"));
+        assertFalse(extractor.add("JSONPATH:$.a[0:2]"));
+
+        Map<String, String> results = extractor.extract(new StringReader("{\"a\":{\"b c\":[{\"d\":\"x\"}]}}"));
+        assertEquals("x", results.get("JSONPATH:$.a['b c'][0][\"d\"]"));
+    }
+
+    @Test
+    public void rejectsInvalidJson() {
+        JsonPathExtractor extractor = new JsonPathExtractor();
+        extractor.add("JSONPATH:$.a.b");
+        assertThrows(IOException.class, () -> extractor.extract(new StringReader("{\"a\":{\"b\":")));
+    }
+
+    private static Map<String, String> extract(String... transformations) throws IOException {
+        JsonPathExtractor extractor = new JsonPathExtractor();
+        for (String transformation : transformations) {
+            assertTrue(extractor.add(transformation), transformation);
+        }
+        return extractor.extract(new StringReader(PAYLOAD));
+    }
+}
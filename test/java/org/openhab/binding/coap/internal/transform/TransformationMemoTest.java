@@ -0,0 +1,190 @@
+/**
+ * Copyright (c) 2010-2022 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.coap.internal.transform;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Optional;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.openhab.binding.coap.internal.coap.TimingWheel;
+
+/**
+ * The {@link TransformationMemoTest} tests the sharing of transformation results by the {@link TransformationMemo}
+ * and the handling of failed and slow computations
+ *
+ * @author Jan N. Klug - Initial contribution
+ */
+@NonNullByDefault
+public class TransformationMemoTest {
+    private static final String CHAIN = "JSONPATH:$.temp";
+    private static final long BUDGET = 100; // in ms
+
+    private final TransformationMemo memo = new TransformationMemo();
+    private final AtomicInteger computations = new AtomicInteger();
+    private final TimingWheel timer = new TimingWheel(Runnable::run, 10, TimeUnit.MILLISECONDS, 64);
+    private final TransformationBulkhead bulkhead = new TransformationBulkhead(2, 10, timer, BUDGET, 1);
+    private final CountDownLatch leaderStarted = new CountDownLatch(1);
+    private final CountDownLatch releaseLeader = new CountDownLatch(1);
+
+    @AfterEach
+    public void tearDown() {
+        releaseLeader.countDown();
+        bulkhead.shutdown();
+        timer.stop();
+    }
+
+    @Test
+    public void computesAChainOnce() {
+        assertEquals(Optional.of("21.5"), memo.computeIfAbsent(CHAIN, this::compute));
+        assertEquals(Optional.of("21.5"), memo.computeIfAbsent(CHAIN, this::compute));
+        assertEquals(1, computations.get());
+    }
+
+    @Test
+    public void prefersAPrecomputedResult() {
+        memo.put(CHAIN, "20");
+        assertEquals(Optional.of("20"), memo.computeIfAbsent(CHAIN, this::compute));
+        assertEquals(0, computations.get());
+    }
+
+    @Test
+    public void doesNotKeepAFailedComputation() {
+        assertThrows(IllegalArgumentException.class, () -> memo.computeIfAbsent(CHAIN, () -> {
+            throw new IllegalArgumentException("invalid JSON");
+        }));
+        assertEquals(Optional.of("21.5"), memo.computeIfAbsent(CHAIN, this::compute));
+    }
+
+    @Test
+    public void doesNotKeepAnInterruptedComputation() {
+        Optional<String> partial = memo.computeIfAbsent(CHAIN, () -> {
+            // the watchdog of the bulkhead interrupted the transformation
+            Thread.currentThread().interrupt();
+            return Optional.empty();
+        });
+        assertTrue(Thread.interrupted());
+        assertEquals(Optional.empty(), partial);
+        assertEquals(Optional.of("21.5"), memo.computeIfAbsent(CHAIN, this::compute));
+    }
+
+    @Test
+    public void failsWaitingCallsIfTheComputationFails() throws InterruptedException {
+        AtomicReference<@Nullable Thread> waiter = new AtomicReference<>();
+        Thread leader = new Thread(() -> {
+            try {
+                memo.computeIfAbsent(CHAIN, () -> {
+                    leaderStarted.countDown();
+                    awaitWaiting(waiter);
+                    throw new IllegalStateException("service failed");
+                });
+            } catch (IllegalStateException e) {
+                // expected
+            }
+        });
+        leader.start();
+        assertTrue(leaderStarted.await(2, TimeUnit.SECONDS));
+
+        AtomicReference<@Nullable RuntimeException> failure = new AtomicReference<>();
+        Thread waiting = new Thread(() -> {
+            try {
+                memo.computeIfAbsent(CHAIN, this::compute);
+            } catch (RuntimeException e) {
+                failure.set(e);
+            }
+        });
+        waiter.set(waiting);
+        waiting.start();
+        waiting.join(2000);
+        leader.join(2000);
+
+        assertTrue(failure.get() instanceof IllegalStateException);
+        assertEquals(0, computations.get());
+        // the next call computes the chain again
+        assertEquals(Optional.of("21.5"), memo.computeIfAbsent(CHAIN, this::compute));
+    }
+
+    @Test
+    public void sharesTheResultWithWaitingInvocations() throws InterruptedException {
+        startSlowLeader();
+        BlockingQueue<Optional<String>> results = new LinkedBlockingQueue<>();
+        bulkhead.createScope().submit("channel", CHAIN, () -> results.add(memo.computeIfAbsent(CHAIN, this::compute)));
+        releaseLeader.countDown();
+
+        assertEquals(Optional.of("slow"), results.poll(2, TimeUnit.SECONDS));
+        assertEquals(0, computations.get());
+    }
+
+    @Test
+    public void limitsTheWaitWithoutChargingTheWaitingChannel() throws InterruptedException {
+        startSlowLeader();
+        TransformationBulkhead.Scope scope = bulkhead.createScope();
+        BlockingQueue<Optional<String>> results = new LinkedBlockingQueue<>();
+        // three overruns would quarantine the transformation
+        for (int i = 0; i < 3; i++) {
+            scope.submit("channel", CHAIN, () -> results.add(memo.computeIfAbsent(CHAIN, this::compute)));
+            Optional<String> result = results.poll(2, TimeUnit.SECONDS);
+            assertEquals(Optional.empty(), result);
+        }
+
+        CountDownLatch ran = new CountDownLatch(1);
+        scope.submit("channel", CHAIN, ran::countDown);
+        assertTrue(ran.await(2, TimeUnit.SECONDS), "transformation was quarantined");
+        assertEquals(0, computations.get());
+        assertFalse(releaseLeader.getCount() == 0);
+    }
+
+    private void startSlowLeader() throws InterruptedException {
+        Thread leader = new Thread(() -> memo.computeIfAbsent(CHAIN, () -> {
+            leaderStarted.countDown();
+            try {
+                releaseLeader.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return Optional.of("slow");
+        }));
+        leader.setDaemon(true);
+        leader.start();
+        assertTrue(leaderStarted.await(2, TimeUnit.SECONDS));
+    }
+
+    private Optional<String> compute() {
+        computations.incrementAndGet();
+        return Optional.of("21.5");
+    }
+
+    private static void awaitWaiting(AtomicReference<@Nullable Thread> waiter) {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+        while (System.nanoTime() < deadline) {
+            Thread thread = waiter.get();
+            if (thread != null && (thread.getState() == Thread.State.WAITING
+                    || thread.getState() == Thread.State.TIMED_WAITING)) {
+                return;
+            }
+            Thread.onSpinWait();
+        }
+    }
+}